@@ -0,0 +1,53 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds fake snapshot trees where every node with children has width children
+ * and leaves are depth levels below the root. Leaf values cycle through each
+ * type a snapshot value can have.
+ */
+class FakeSnapshots {
+
+    static final String ROOT_URL = "https://benchmark.firebaseio.com";
+
+    private FakeSnapshots() {
+    }
+
+    /**
+     * @param list use integer keys so children convert to arrays
+     */
+    static DataSnapshot tree(int width, int depth, boolean list) {
+        return node(new DatabaseReference(ROOT_URL + "/root", "root"), width, depth, list, 0);
+    }
+
+    private static DataSnapshot node(DatabaseReference ref, int width, int depth, boolean list, int index) {
+        if (depth == 0) {
+            return new DataSnapshot(ref, leafValue(index), null, null);
+        }
+        List<DataSnapshot> children = new ArrayList<>(width);
+        for (int i = 0; i < width; i++) {
+            String key = list ? Integer.toString(i) : "key" + i;
+            children.add(node(ref.child(key), width, depth - 1, list, i));
+        }
+        return new DataSnapshot(ref, null, null, children);
+    }
+
+    private static Object leafValue(int index) {
+        switch (index % 4) {
+            case 0:
+                return (long)index;
+            case 1:
+                return index + 0.5;
+            case 2:
+                return "value " + index;
+            default:
+                return index % 2 == 0;
+        }
+    }
+
+}
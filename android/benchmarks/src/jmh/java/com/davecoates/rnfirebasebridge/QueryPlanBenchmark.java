@@ -0,0 +1,56 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.JavaOnlyArray;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Turning a JS query descriptor into a query. queryRef is what on() / once()
+ * do for every call.
+ */
+@State(Scope.Benchmark)
+public class QueryPlanBenchmark {
+
+    private JavaOnlyArray query;
+    private DatabaseReference ref;
+    private FirebaseBridgeQueryPlan plan;
+    private FirebaseBridgeQueryPlan.Cache cache;
+
+    @Setup
+    public void setup() throws Exception {
+        query = JavaOnlyArray.of(
+                JavaOnlyArray.of("orderByChild", "age"),
+                JavaOnlyArray.of("startAt", 18.0, "key"),
+                JavaOnlyArray.of("endAt", 65.0),
+                JavaOnlyArray.of("limitToFirst", 20));
+        ref = new DatabaseReference(FakeSnapshots.ROOT_URL + "/users", "users");
+        plan = FirebaseBridgeQueryPlan.compile(query);
+        cache = new FirebaseBridgeQueryPlan.Cache();
+        cache.get(query);
+    }
+
+    @Benchmark
+    public String canonicalize() {
+        return FirebaseBridgeQueryPlan.canonicalize(query);
+    }
+
+    @Benchmark
+    public FirebaseBridgeQueryPlan compile() throws Exception {
+        return FirebaseBridgeQueryPlan.compile(query);
+    }
+
+    @Benchmark
+    public Query apply() {
+        return plan.apply(ref);
+    }
+
+    @Benchmark
+    public Query queryRef() throws Exception {
+        return cache.get(query).apply(ref);
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * on / off and snapshot put / get / release from many threads at once. Run
+ * with different thread counts (-Pthreads=N) to compare throughput.
+ * RegistryConcurrencyTest checks the same operations leak nothing.
+ */
+@State(Scope.Benchmark)
+public class RegistryConcurrencyBenchmark {
+
+    // Fewer keys means more subscribers sharing (and racing on) each subscription
+    @Param({"4", "64"})
+    public int keys;
+
+    private FirebaseBridgeListenerRegistry registry;
+    private FirebaseBridgeSnapshotCache cache;
+    private DatabaseReference ref;
+    private DataSnapshot snapshot;
+
+    private final AtomicLong nextId = new AtomicLong();
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private final ValueEventListener listener = new ValueEventListener() {
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+        }
+    };
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        registry = new FirebaseBridgeListenerRegistry();
+        cache = new FirebaseBridgeSnapshotCache();
+        cache.setLimits(Integer.MAX_VALUE, Long.MAX_VALUE);
+        ref = new DatabaseReference(FakeSnapshots.ROOT_URL + "/items", "items");
+        snapshot = FakeSnapshots.tree(10, 1, false);
+    }
+
+    /**
+     * What on() followed by off() does, minus the Firebase and bridge calls.
+     */
+    @Benchmark
+    public void onOff() {
+        final String key = "key" + ThreadLocalRandom.current().nextInt(keys);
+        final String subscriberId = Long.toString(nextId.incrementAndGet());
+        registry.subscribe(key, subscriberId, new FirebaseBridgeListenerRegistry.Subscriber() {
+            @Override
+            public FirebaseBridgeDatabaseSubscription create() {
+                return new FirebaseBridgeDatabaseSubscription(key, ref, "value",
+                        FirebaseBridgeSubscriptionOptions.DEFAULT, DIRECT);
+            }
+
+            @Override
+            public void joined(FirebaseBridgeDatabaseSubscription subscription) {
+                subscription.addPendingSubscriber(subscriberId);
+            }
+
+            @Override
+            public void registered(FirebaseBridgeDatabaseSubscription subscription) {
+                subscription.setListener(new DatabaseReferenceListenerPair(ref, listener));
+            }
+        });
+        FirebaseBridgeDatabaseSubscription removed = registry.remove(subscriberId);
+        if (removed != null) {
+            removed.detach();
+        }
+    }
+
+    /**
+     * A snapshot event cached for JS, used once by two holders and released.
+     */
+    @Benchmark
+    public DataSnapshot putGetRelease() {
+        String id = cache.put(snapshot);
+        cache.retain(id);
+        DataSnapshot result = cache.get(id);
+        cache.release(id);
+        cache.release(id);
+        return result;
+    }
+
+}
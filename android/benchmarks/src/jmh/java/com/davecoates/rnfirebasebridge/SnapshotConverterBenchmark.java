@@ -0,0 +1,86 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+import com.google.firebase.database.DataSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Converting snapshot trees into bridge values. width ^ depth leaves are
+ * converted per operation.
+ */
+@State(Scope.Benchmark)
+public class SnapshotConverterBenchmark {
+
+    @Param({"10", "100"})
+    public int width;
+
+    @Param({"1", "2"})
+    public int depth;
+
+    @Param({"map", "list"})
+    public String shape;
+
+    private DataSnapshot snapshot;
+
+    @Setup
+    public void setup() {
+        snapshot = FakeSnapshots.tree(width, depth, shape.equals("list"));
+    }
+
+    @Benchmark
+    public WritableMap value() {
+        WritableMap data = Arguments.createMap();
+        FirebaseBridgeSnapshotConverter.putValue(data, "value", snapshot, false);
+        return data;
+    }
+
+    /**
+     * Same value as value() written as a JSON string. Compare against value()
+     * to see the cost of building the map; on device each put is also a JNI
+     * call which isn't measured here.
+     */
+    @Benchmark
+    public String json() {
+        return FirebaseBridgeSnapshotJsonWriter.write(snapshot, false, null);
+    }
+
+    @Benchmark
+    public WritableMap exportValue() {
+        WritableMap data = Arguments.createMap();
+        FirebaseBridgeSnapshotConverter.putValue(data, "value", snapshot, true);
+        return data;
+    }
+
+    @Benchmark
+    public WritableMap describe() {
+        return FirebaseBridgeSnapshotConverter.describe(snapshot);
+    }
+
+    @Benchmark
+    public void resolveValue(final Blackhole blackhole) {
+        FirebaseBridgeSnapshotConverter.resolveValue(new Promise() {
+            @Override
+            public void resolve(Object value) {
+                blackhole.consume(value);
+            }
+
+            @Override
+            public void reject(String code, String message) {
+                throw new IllegalStateException(message);
+            }
+
+            @Override
+            public void reject(Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }, snapshot, false);
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.net.Uri;
+import com.facebook.react.bridge.WritableMap;
+import com.google.firebase.auth.FirebaseUser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class UserConverterBenchmark {
+
+    private FirebaseUser user;
+
+    @Setup
+    public void setup() {
+        final Uri photoUrl = Uri.parse("https://example.com/photo.png");
+        user = new FirebaseUser() {
+            @Override
+            public String getUid() {
+                return "V1StGXR8Z5jdHi6BmyT";
+            }
+
+            @Override
+            public String getEmail() {
+                return "user@example.com";
+            }
+
+            @Override
+            public boolean isEmailVerified() {
+                return true;
+            }
+
+            @Override
+            public String getDisplayName() {
+                return "Benchmark User";
+            }
+
+            @Override
+            public Uri getPhotoUrl() {
+                return photoUrl;
+            }
+
+            @Override
+            public boolean isAnonymous() {
+                return false;
+            }
+
+            @Override
+            public String getProviderId() {
+                return "firebase";
+            }
+        };
+    }
+
+    @Benchmark
+    public WritableMap convertUser() {
+        return FirebaseBridgeUserConverter.convert(user);
+    }
+
+}
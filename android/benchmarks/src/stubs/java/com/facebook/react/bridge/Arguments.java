@@ -0,0 +1,18 @@
+package com.facebook.react.bridge;
+
+/**
+ * Creates Java backed containers. The real implementation creates native
+ * (JNI) maps and arrays which can't be used off device; the Java ones have a
+ * similar per-entry cost.
+ */
+public class Arguments {
+
+    public static WritableMap createMap() {
+        return new JavaOnlyMap();
+    }
+
+    public static WritableArray createArray() {
+        return new JavaOnlyArray();
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.facebook.react.bridge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class JavaOnlyArray implements WritableArray {
+
+    private final List<Object> values;
+
+    public static JavaOnlyArray of(Object... values) {
+        return new JavaOnlyArray(values);
+    }
+
+    public JavaOnlyArray() {
+        values = new ArrayList<>();
+    }
+
+    private JavaOnlyArray(Object... values) {
+        this.values = new ArrayList<>(Arrays.asList(values));
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean isNull(int index) {
+        return values.get(index) == null;
+    }
+
+    @Override
+    public boolean getBoolean(int index) {
+        return (Boolean)values.get(index);
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return ((Number)values.get(index)).doubleValue();
+    }
+
+    @Override
+    public int getInt(int index) {
+        return ((Number)values.get(index)).intValue();
+    }
+
+    @Override
+    public String getString(int index) {
+        return (String)values.get(index);
+    }
+
+    @Override
+    public ReadableArray getArray(int index) {
+        return (ReadableArray)values.get(index);
+    }
+
+    @Override
+    public ReadableMap getMap(int index) {
+        return (ReadableMap)values.get(index);
+    }
+
+    @Override
+    public ReadableType getType(int index) {
+        return JavaOnlyMap.typeOf(values.get(index));
+    }
+
+    @Override
+    public void pushNull() {
+        values.add(null);
+    }
+
+    @Override
+    public void pushBoolean(boolean value) {
+        values.add(value);
+    }
+
+    @Override
+    public void pushDouble(double value) {
+        values.add(value);
+    }
+
+    @Override
+    public void pushInt(int value) {
+        values.add(value);
+    }
+
+    @Override
+    public void pushString(String value) {
+        values.add(value);
+    }
+
+    @Override
+    public void pushArray(WritableArray array) {
+        values.add(array);
+    }
+
+    @Override
+    public void pushMap(WritableMap map) {
+        values.add(map);
+    }
+
+}
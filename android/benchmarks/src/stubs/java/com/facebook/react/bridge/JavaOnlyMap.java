@@ -0,0 +1,109 @@
+package com.facebook.react.bridge;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class JavaOnlyMap implements WritableMap {
+
+    private final Map<String, Object> values = new HashMap<>();
+
+    static ReadableType typeOf(Object value) {
+        if (value == null) {
+            return ReadableType.Null;
+        }
+        if (value instanceof Boolean) {
+            return ReadableType.Boolean;
+        }
+        if (value instanceof Number) {
+            return ReadableType.Number;
+        }
+        if (value instanceof String) {
+            return ReadableType.String;
+        }
+        if (value instanceof ReadableMap) {
+            return ReadableType.Map;
+        }
+        return ReadableType.Array;
+    }
+
+    @Override
+    public boolean hasKey(String name) {
+        return values.containsKey(name);
+    }
+
+    @Override
+    public boolean isNull(String name) {
+        return values.get(name) == null;
+    }
+
+    @Override
+    public boolean getBoolean(String name) {
+        return (Boolean)values.get(name);
+    }
+
+    @Override
+    public double getDouble(String name) {
+        return ((Number)values.get(name)).doubleValue();
+    }
+
+    @Override
+    public int getInt(String name) {
+        return ((Number)values.get(name)).intValue();
+    }
+
+    @Override
+    public String getString(String name) {
+        return (String)values.get(name);
+    }
+
+    @Override
+    public ReadableArray getArray(String name) {
+        return (ReadableArray)values.get(name);
+    }
+
+    @Override
+    public ReadableMap getMap(String name) {
+        return (ReadableMap)values.get(name);
+    }
+
+    @Override
+    public ReadableType getType(String name) {
+        return typeOf(values.get(name));
+    }
+
+    @Override
+    public void putNull(String key) {
+        values.put(key, null);
+    }
+
+    @Override
+    public void putBoolean(String key, boolean value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putDouble(String key, double value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putInt(String key, int value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putString(String key, String value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putArray(String key, WritableArray value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void putMap(String key, WritableMap value) {
+        values.put(key, value);
+    }
+
+}
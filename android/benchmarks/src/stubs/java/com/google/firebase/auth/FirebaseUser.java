@@ -0,0 +1,13 @@
+package com.google.firebase.auth;
+
+import android.net.Uri;
+
+public abstract class FirebaseUser {
+    public abstract String getUid();
+    public abstract String getEmail();
+    public abstract boolean isEmailVerified();
+    public abstract String getDisplayName();
+    public abstract Uri getPhotoUrl();
+    public abstract boolean isAnonymous();
+    public abstract String getProviderId();
+}
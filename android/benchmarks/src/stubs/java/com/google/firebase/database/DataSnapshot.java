@@ -0,0 +1,83 @@
+package com.google.firebase.database;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fake snapshot tree. Leaves have a value, other nodes have children. As with
+ * the SDK getValue() on a node with children builds the whole tree of maps.
+ */
+public class DataSnapshot {
+
+    private final DatabaseReference ref;
+    private final Object value;
+    private final Object priority;
+    private final List<DataSnapshot> children;
+
+    public DataSnapshot(DatabaseReference ref, Object value, Object priority, List<DataSnapshot> children) {
+        this.ref = ref;
+        this.value = value;
+        this.priority = priority;
+        this.children = children == null ? Collections.<DataSnapshot>emptyList() : children;
+    }
+
+    public DatabaseReference getRef() {
+        return ref;
+    }
+
+    public String getKey() {
+        return ref.getKey();
+    }
+
+    public Object getValue() {
+        if (children.isEmpty()) {
+            return value;
+        }
+        Map<String, Object> map = new HashMap<>();
+        for (DataSnapshot child : children) {
+            map.put(child.getKey(), child.getValue());
+        }
+        return map;
+    }
+
+    public Object getPriority() {
+        return priority;
+    }
+
+    public boolean exists() {
+        return value != null || !children.isEmpty();
+    }
+
+    public boolean hasChildren() {
+        return !children.isEmpty();
+    }
+
+    public long getChildrenCount() {
+        return children.size();
+    }
+
+    public Iterable<DataSnapshot> getChildren() {
+        return children;
+    }
+
+    public boolean hasChild(String key) {
+        for (DataSnapshot child : children) {
+            if (child.getKey().equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public DataSnapshot child(String key) {
+        for (DataSnapshot child : children) {
+            if (child.getKey().equals(key)) {
+                return child;
+            }
+        }
+        return new DataSnapshot(ref.child(key), null, null, null);
+    }
+
+}
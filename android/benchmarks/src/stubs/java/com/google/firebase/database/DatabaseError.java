@@ -0,0 +1,9 @@
+package com.google.firebase.database;
+
+public class DatabaseError {
+
+    public int getCode() { return 0; }
+    public String getMessage() { return ""; }
+    public String getDetails() { return ""; }
+
+}
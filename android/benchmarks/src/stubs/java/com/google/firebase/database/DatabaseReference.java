@@ -0,0 +1,26 @@
+package com.google.firebase.database;
+
+public class DatabaseReference extends Query {
+
+    private final String url;
+    private final String key;
+
+    public DatabaseReference(String url, String key) {
+        this.url = url;
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public DatabaseReference child(String path) {
+        return new DatabaseReference(url + "/" + path, path.substring(path.lastIndexOf('/') + 1));
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.google.firebase.database;
+
+/**
+ * Query methods return this rather than a new query so benchmarks measure the
+ * bridge's own cost of building a query.
+ */
+public class Query {
+
+    public Query orderByChild(String path) { return this; }
+    public Query orderByKey() { return this; }
+    public Query orderByPriority() { return this; }
+    public Query orderByValue() { return this; }
+
+    public Query startAt(String value) { return this; }
+    public Query startAt(double value) { return this; }
+    public Query startAt(boolean value) { return this; }
+    public Query startAt(String value, String key) { return this; }
+    public Query startAt(double value, String key) { return this; }
+    public Query startAt(boolean value, String key) { return this; }
+
+    public Query endAt(String value) { return this; }
+    public Query endAt(double value) { return this; }
+    public Query endAt(boolean value) { return this; }
+    public Query endAt(String value, String key) { return this; }
+    public Query endAt(double value, String key) { return this; }
+    public Query endAt(boolean value, String key) { return this; }
+
+    public Query equalTo(String value) { return this; }
+    public Query equalTo(double value) { return this; }
+    public Query equalTo(boolean value) { return this; }
+    public Query equalTo(String value, String key) { return this; }
+    public Query equalTo(double value, String key) { return this; }
+    public Query equalTo(boolean value, String key) { return this; }
+
+    public Query limitToFirst(int limit) { return this; }
+    public Query limitToLast(int limit) { return this; }
+
+    // Listeners are never called
+    public ValueEventListener addValueEventListener(ValueEventListener listener) { return listener; }
+    public ChildEventListener addChildEventListener(ChildEventListener listener) { return listener; }
+    public void removeEventListener(ValueEventListener listener) { }
+    public void removeEventListener(ChildEventListener listener) { }
+
+}
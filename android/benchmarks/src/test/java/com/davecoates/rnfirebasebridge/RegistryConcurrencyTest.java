@@ -0,0 +1,207 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Subscribes / unsubscribes and puts / releases snapshots from several threads
+ * at once and checks nothing is leaked or removed twice. Timing is left to
+ * RegistryConcurrencyBenchmark.
+ */
+public class RegistryConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 20000;
+    // Few keys so subscribers share, and race on, each subscription
+    private static final int KEYS = 4;
+    // Subscriptions each thread holds before unsubscribing the oldest
+    private static final int HELD = 8;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private static final ValueEventListener LISTENER = new ValueEventListener() {
+        @Override
+        public void onDataChange(DataSnapshot snapshot) {
+        }
+
+        @Override
+        public void onCancelled(DatabaseError error) {
+        }
+    };
+
+    private final FirebaseBridgeListenerRegistry registry = new FirebaseBridgeListenerRegistry();
+    private final DatabaseReference ref = new DatabaseReference("https://test.firebaseio.com/items", "items");
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final Set<FirebaseBridgeDatabaseSubscription> registered =
+            Collections.newSetFromMap(new ConcurrentHashMap<FirebaseBridgeDatabaseSubscription, Boolean>());
+    private final Set<FirebaseBridgeDatabaseSubscription> detached =
+            Collections.newSetFromMap(new ConcurrentHashMap<FirebaseBridgeDatabaseSubscription, Boolean>());
+    private final AtomicReference<String> failure = new AtomicReference<>();
+
+    private void fail(String message) {
+        failure.compareAndSet(null, message);
+    }
+
+    private String subscribe(final String key) {
+        final String subscriberId = Long.toString(nextId.incrementAndGet());
+        registry.subscribe(key, subscriberId, new FirebaseBridgeListenerRegistry.Subscriber() {
+            @Override
+            public FirebaseBridgeDatabaseSubscription create() {
+                return new FirebaseBridgeDatabaseSubscription(key, ref, "value",
+                        FirebaseBridgeSubscriptionOptions.DEFAULT, DIRECT);
+            }
+
+            @Override
+            public void joined(FirebaseBridgeDatabaseSubscription subscription) {
+                // The reservation keeps it open until this subscriber leaves
+                if (subscription.isClosed()) {
+                    fail("Joined closed subscription for " + key);
+                }
+                subscription.addPendingSubscriber(subscriberId);
+            }
+
+            @Override
+            public void registered(FirebaseBridgeDatabaseSubscription subscription) {
+                if (!registered.add(subscription)) {
+                    fail("Subscription for " + key + " registered twice");
+                }
+                subscription.setListener(new DatabaseReferenceListenerPair(ref, LISTENER));
+            }
+        });
+        return subscriberId;
+    }
+
+    private void unsubscribe(String subscriberId) {
+        FirebaseBridgeDatabaseSubscription removed = registry.remove(subscriberId);
+        if (removed == null) {
+            return;
+        }
+        if (!removed.isClosed()) {
+            fail("Removed subscription for " + removed.key + " is still open");
+        }
+        if (!detached.add(removed)) {
+            fail("Subscription for " + removed.key + " removed twice");
+        }
+        removed.detach();
+    }
+
+    private void runThreads(final Runnable body) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        body.run();
+                    } catch (Throwable e) {
+                        fail(e.toString());
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void subscribeUnsubscribe() throws InterruptedException {
+        runThreads(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random();
+                List<String> held = new ArrayList<>();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    held.add(subscribe("key" + random.nextInt(KEYS)));
+                    if (held.size() > HELD) {
+                        unsubscribe(held.remove(random.nextInt(held.size())));
+                    }
+                }
+                for (String subscriberId : held) {
+                    unsubscribe(subscriberId);
+                }
+            }
+        });
+
+        assertEquals(0, registry.subscriberCount());
+        assertTrue(registry.subscriptions().isEmpty());
+        // Every native listener attached was removed exactly once
+        assertEquals(registered, detached);
+    }
+
+    @Test
+    public void snapshotCachePinning() throws InterruptedException {
+        final FirebaseBridgeSnapshotCache cache = new FirebaseBridgeSnapshotCache();
+        final int maxEntries = 100;
+        cache.setLimits(maxEntries, Long.MAX_VALUE);
+        final DataSnapshot snapshot = new DataSnapshot(ref, "value", null, null);
+
+        runThreads(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random();
+                List<String> held = new ArrayList<>();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    String id = cache.put(snapshot);
+                    cache.retain(id);
+                    held.add(id);
+                    if (held.size() > HELD) {
+                        String oldest = held.remove(0);
+                        // Still referenced so can't have been evicted
+                        if (cache.get(oldest) != snapshot) {
+                            fail("Pinned snapshot " + oldest + " was evicted");
+                        }
+                        cache.release(oldest);
+                        cache.release(oldest);
+                    }
+                    if (random.nextInt(4) == 0) {
+                        // Releasing more than retained is ignored
+                        cache.release(id);
+                        cache.release(id);
+                        cache.release(id);
+                        held.remove(id);
+                    }
+                }
+                for (String id : held) {
+                    cache.release(id);
+                    cache.release(id);
+                }
+            }
+        });
+
+        assertEquals(0, cache.getPinnedBytes());
+        assertTrue(cache.size() <= maxEntries);
+        assertEquals(cache.size() * FirebaseBridgeSnapshotCache.estimateBytes(snapshot), cache.getBytes());
+    }
+
+}
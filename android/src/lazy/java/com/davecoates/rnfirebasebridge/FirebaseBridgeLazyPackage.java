@@ -0,0 +1,100 @@
+package com.davecoates.rnfirebasebridge;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import com.facebook.react.LazyReactPackage;
+import com.facebook.react.bridge.ModuleSpec;
+import com.facebook.react.bridge.NativeModule;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.uimanager.ViewManager;
+import com.facebook.react.bridge.JavaScriptModule;
+
+/**
+ * Hands modules to React Native as specs so each is only built when first
+ * needed if the host has lazy native modules enabled (most apps never use most
+ * of the auth provider modules). Otherwise they are all built at startup as
+ * with FirebaseBridgePackage.
+ *
+ * LazyReactPackage first appeared in React Native 0.39 and gained the abstract
+ * getReactModuleInfoProvider() in 0.47, so this is only compiled for hosts on
+ * 0.39 - 0.46 (see build.gradle).
+ */
+public class FirebaseBridgeLazyPackage extends LazyReactPackage {
+
+  @Override
+  public List<Class<? extends JavaScriptModule>> createJSModules() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<ViewManager> createViewManagers(ReactApplicationContext reactContext) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public List<ModuleSpec> getNativeModules(final ReactApplicationContext reactContext) {
+    return Arrays.asList(
+      new ModuleSpec(FirebaseBridgeAuth.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeAuth(reactContext), start);
+        }
+      }),
+      new ModuleSpec(FirebaseBridgeApp.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeApp(reactContext), start);
+        }
+      }),
+      new ModuleSpec(FirebaseBridgeUser.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeUser(reactContext), start);
+        }
+      }),
+      new ModuleSpec(FirebaseBridgeFacebookAuthProvider.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeFacebookAuthProvider(reactContext), start);
+        }
+      }),
+      new ModuleSpec(FirebaseBridgeGoogleAuthProvider.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeGoogleAuthProvider(reactContext), start);
+        }
+      }),
+      new ModuleSpec(FirebaseBridgeTwitterAuthProvider.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeTwitterAuthProvider(reactContext), start);
+        }
+      }),
+      new ModuleSpec(FirebaseBridgeGithubAuthProvider.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeGithubAuthProvider(reactContext), start);
+        }
+      }),
+      new ModuleSpec(FirebaseBridgeDatabase.class, new Provider<NativeModule>() {
+        @Override
+        public NativeModule get() {
+          long start = System.nanoTime();
+          return FirebaseBridgePackage.constructed(new FirebaseBridgeDatabase(reactContext), start);
+        }
+      })
+    );
+  }
+
+}
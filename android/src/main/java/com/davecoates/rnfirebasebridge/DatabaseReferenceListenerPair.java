@@ -0,0 +1,28 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+class DatabaseReferenceListenerPair {
+    public Query ref;
+    public ValueEventListener valueListener;
+    public ChildEventListener childListener;
+    public DatabaseReferenceListenerPair(Query ref, ValueEventListener listener) {
+        this.ref = ref;
+        this.valueListener = listener;
+    }
+    public DatabaseReferenceListenerPair(Query ref, ChildEventListener listener) {
+        this.ref = ref;
+        this.childListener = listener;
+    }
+
+    public void unsubscribe() {
+        if (this.valueListener != null) {
+            this.ref.removeEventListener(this.valueListener);
+        }
+        if (this.childListener != null) {
+            this.ref.removeEventListener(this.childListener);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
 
 import java.util.List;
+import java.util.Map;
 
 
 public class FirebaseBridgeApp extends ReactContextBaseJavaModule {
@@ -32,6 +33,20 @@ public class FirebaseBridgeApp extends ReactContextBaseJavaModule {
         return m;
     }
 
+    /**
+     * Milliseconds taken to construct each module built so far. Modules not
+     * yet needed (if lazy native modules are enabled) are missing.
+     */
+    @ReactMethod
+    public void getModuleConstructionTimes(Promise promise)
+    {
+        WritableMap times = Arguments.createMap();
+        for (Map.Entry<String, Long> entry : FirebaseBridgePackage.getConstructionTimes().entrySet()) {
+            times.putDouble(entry.getKey(), entry.getValue() / 1e6);
+        }
+        promise.resolve(times);
+    }
+
     @ReactMethod
     public void initializeDefaultApp(Promise promise)
     {
@@ -53,17 +53,7 @@ public class FirebaseBridgeAuth extends ReactContextBaseJavaModule {
     }
 
     static public WritableMap convertUser(FirebaseUser user) {
-        final WritableMap m = Arguments.createMap();
-        m.putString("uid", user.getUid());
-        m.putString("email", user.getEmail());
-        m.putBoolean("emailVerified", user.isEmailVerified());
-        m.putString("displayName", user.getDisplayName());
-        if (user.getPhotoUrl() != null) {
-            m.putString("photoUrl", user.getPhotoUrl().toString());
-        }
-        m.putBoolean("isAnonymous", user.isAnonymous());
-        m.putString("providerId", user.getProviderId());
-        return m;
+        return FirebaseBridgeUserConverter.convert(user);
     }
 
     private Map<String, FirebaseAuth.AuthStateListener> authStateDidChangeListeners = new HashMap<>();
@@ -184,7 +174,7 @@ public class FirebaseBridgeAuth extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    public void signInWithCredential(String appName, String id, final Promise promise) {
+    public void signInWithCredential(String appName, final String id, final Promise promise) {
         FirebaseApp app = FirebaseApp.getInstance(appName);
         AuthCredential credential = FirebaseBridgeCredentialCache.getCredential(id);
         if (credential == null) {
@@ -195,6 +185,7 @@ public class FirebaseBridgeAuth extends ReactContextBaseJavaModule {
                 .addOnSuccessListener(new OnSuccessListener<AuthResult>() {
                     @Override
                     public void onSuccess(AuthResult result) {
+                        FirebaseBridgeCredentialCache.used(id);
                         promise.resolve(convertUser(result.getUser()));
                     }
                 })
@@ -206,6 +197,21 @@ public class FirebaseBridgeAuth extends ReactContextBaseJavaModule {
                 });
     }
 
+    /**
+     * Options for how long credentials from the auth providers are kept. See
+     * FirebaseBridgeCredentialCache. Options not given are left as they are.
+     */
+    @ReactMethod
+    public void setCredentialCacheOptions(ReadableMap options) {
+        Long ttlMs = options.hasKey("ttlMs") && !options.isNull("ttlMs")
+                ? (long)options.getDouble("ttlMs") : null;
+        Integer maxEntries = options.hasKey("maxEntries") && !options.isNull("maxEntries")
+                ? options.getInt("maxEntries") : null;
+        Boolean consumeOnUse = options.hasKey("consumeOnUse") && !options.isNull("consumeOnUse")
+                ? options.getBoolean("consumeOnUse") : null;
+        FirebaseBridgeCredentialCache.configure(ttlMs, maxEntries, consumeOnUse);
+    }
+
     @ReactMethod
     public void signOut(String appName, Promise promise) {
         FirebaseApp app = FirebaseApp.getInstance(appName);
@@ -0,0 +1,273 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a list of writes from a single batchWrite() call and resolves one
+ * promise with the result of each.
+ *
+ * Runs of adjacent set / remove / update operations against the same database
+ * are merged into a single multi-location updateChildren() on the root. The
+ * SDK rejects an update where one path is an ancestor of another so a new group
+ * is started whenever that would happen, which also keeps the operations in
+ * their original order. Operations involving priorities can't be expressed as
+ * an update and are run on their own.
+ */
+class FirebaseBridgeBatchWrite {
+
+    enum Type {
+        SET,
+        SET_WITH_PRIORITY,
+        SET_PRIORITY,
+        REMOVE,
+        UPDATE,
+    }
+
+    static class Op {
+        final Type type;
+        final DatabaseReference ref;
+        final Object value;
+        final Object priority;
+
+        Op(Type type, DatabaseReference ref, Object value, Object priority) {
+            this.type = type;
+            this.ref = ref;
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    private final WritableMap[] results;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Promise promise;
+
+    private FirebaseBridgeBatchWrite(int size, Promise promise) {
+        this.results = new WritableMap[size];
+        this.promise = promise;
+    }
+
+    /**
+     * @param ops operations in the order they were given; a null entry is an
+     *            operation that couldn't be parsed and is reported as invalid
+     */
+    @SuppressWarnings("unchecked")
+    static void run(List<Op> ops, Promise promise) {
+        FirebaseBridgeBatchWrite batch = new FirebaseBridgeBatchWrite(ops.size(), promise);
+        // Held until everything is started so we don't resolve early
+        batch.pending.incrementAndGet();
+
+        Group group = null;
+        for (int i = 0; i < ops.size(); i++) {
+            Op op = ops.get(i);
+            if (op == null) {
+                batch.fail(i, "invalid_operation", "Operation must have a url and a type of set, setWithPriority, setPriority, remove or update");
+                continue;
+            }
+            if (op.type == Type.SET_WITH_PRIORITY || op.type == Type.SET_PRIORITY) {
+                if (group != null) {
+                    batch.write(group);
+                    group = null;
+                }
+                batch.writeSingle(i, op);
+                continue;
+            }
+            DatabaseReference root = op.ref.getRoot();
+            String path = pathFromRoot(op.ref);
+            Map<String, Object> values = new HashMap<>();
+            if (op.type == Type.UPDATE) {
+                for (Map.Entry<String, Object> entry : ((Map<String, Object>)op.value).entrySet()) {
+                    values.put(joinPath(path, normalizePath(entry.getKey())), entry.getValue());
+                }
+            } else {
+                values.put(path, op.type == Type.REMOVE ? null : op.value);
+            }
+            if (group != null && !group.accepts(root, values.keySet())) {
+                batch.write(group);
+                group = null;
+            }
+            if (group == null) {
+                group = new Group(root);
+            }
+            group.add(i, values);
+        }
+        if (group != null) {
+            batch.write(group);
+        }
+        batch.complete();
+    }
+
+    private static class Group {
+        final DatabaseReference root;
+        final Map<String, Object> values = new HashMap<>();
+        final List<Integer> indices = new ArrayList<>();
+
+        Group(DatabaseReference root) {
+            this.root = root;
+        }
+
+        boolean accepts(DatabaseReference root, Iterable<String> paths) {
+            if (!this.root.toString().equals(root.toString())) {
+                return false;
+            }
+            for (String path : paths) {
+                for (String existing : values.keySet()) {
+                    if (overlaps(path, existing)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        void add(int index, Map<String, Object> values) {
+            indices.add(index);
+            this.values.putAll(values);
+        }
+    }
+
+    private void write(final Group group) {
+        pending.incrementAndGet();
+        try {
+            group.root.updateChildren(group.values, new DatabaseReference.CompletionListener() {
+                @Override
+                public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                    for (int index : group.indices) {
+                        setResult(index, databaseError);
+                    }
+                    complete();
+                }
+            });
+        } catch (DatabaseException e) {
+            for (int index : group.indices) {
+                put(index, error("invalid_value", e.getMessage()));
+            }
+            complete();
+        }
+    }
+
+    private void writeSingle(final int index, Op op) {
+        pending.incrementAndGet();
+        DatabaseReference.CompletionListener listener = new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                setResult(index, databaseError);
+                complete();
+            }
+        };
+        try {
+            if (op.type == Type.SET_PRIORITY) {
+                op.ref.setPriority(op.priority, listener);
+            } else {
+                op.ref.setValue(op.value, op.priority, listener);
+            }
+        } catch (DatabaseException e) {
+            put(index, error("invalid_value", e.getMessage()));
+            complete();
+        }
+    }
+
+    private void fail(int index, String code, String message) {
+        put(index, error(code, message));
+    }
+
+    private synchronized void put(int index, WritableMap result) {
+        results[index] = result;
+    }
+
+    private void setResult(int index, DatabaseError databaseError) {
+        if (databaseError == null) {
+            WritableMap result = Arguments.createMap();
+            result.putBoolean("ok", true);
+            put(index, result);
+        } else {
+            WritableMap result = error("database_error", databaseError.getMessage());
+            result.putInt("errorCode", databaseError.getCode());
+            put(index, result);
+        }
+    }
+
+    private static WritableMap error(String code, String message) {
+        WritableMap result = Arguments.createMap();
+        result.putBoolean("ok", false);
+        result.putString("code", code);
+        result.putString("message", message);
+        return result;
+    }
+
+    private void complete() {
+        if (pending.decrementAndGet() != 0) {
+            return;
+        }
+        WritableArray data = Arguments.createArray();
+        // Completion listeners may run on a different thread to run()
+        synchronized (this) {
+            for (WritableMap result : results) {
+                data.pushMap(result);
+            }
+        }
+        promise.resolve(data);
+    }
+
+    /**
+     * @return path of ref relative to the root without leading slash ('' for root)
+     */
+    static String pathFromRoot(DatabaseReference ref) {
+        StringBuilder sb = new StringBuilder();
+        DatabaseReference current = ref;
+        while (current.getKey() != null) {
+            sb.insert(0, current.getKey());
+            current = current.getParent();
+            if (current.getKey() != null) {
+                sb.insert(0, '/');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String normalizePath(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    private static String joinPath(String parent, String child) {
+        if (parent.isEmpty()) {
+            return child;
+        }
+        return child.isEmpty() ? parent : parent + "/" + child;
+    }
+
+    /**
+     * True if either path is the same as or an ancestor of the other
+     */
+    static boolean overlaps(String a, String b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return true;
+        }
+        if (a.length() == b.length()) {
+            return a.equals(b);
+        }
+        String shorter = a.length() < b.length() ? a : b;
+        String longer = a.length() < b.length() ? b : a;
+        return longer.startsWith(shorter) && longer.charAt(shorter.length()) == '/';
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterates the children of a snapshot a page at a time. Only the current page
+ * is held; a child is cached (and given a uuid) only if JS asks for it with
+ * FirebaseBridgeDatabase.cursorChild.
+ *
+ * The cursor holds the parent snapshot itself so it is unaffected by the
+ * parent being released or evicted from the snapshot cache.
+ */
+class FirebaseBridgeChildrenCursor {
+
+    private final Iterator<DataSnapshot> children;
+    private final int pageSize;
+    private List<DataSnapshot> page = new ArrayList<>();
+    // Index (among all children) of the first child in page
+    private int pageStart = 0;
+
+    FirebaseBridgeChildrenCursor(DataSnapshot snapshot, int pageSize) {
+        this.children = snapshot.getChildren().iterator();
+        this.pageSize = Math.max(1, pageSize);
+    }
+
+    /**
+     * Advance to the next page
+     * @return children in the page; empty once all children have been returned
+     */
+    synchronized List<DataSnapshot> next() {
+        pageStart += page.size();
+        page = new ArrayList<>(pageSize);
+        while (page.size() < pageSize && children.hasNext()) {
+            page.add(children.next());
+        }
+        return page;
+    }
+
+    synchronized int getPageStart() {
+        return pageStart;
+    }
+
+    synchronized boolean isDone() {
+        return !children.hasNext();
+    }
+
+    /**
+     * @param index index among all children, as sent with each child
+     * @return child or null if it isn't in the current page
+     */
+    @Nullable
+    synchronized DataSnapshot get(int index) {
+        int offset = index - pageStart;
+        if (offset < 0 || offset >= page.size()) {
+            return null;
+        }
+        return page.get(offset);
+    }
+
+}
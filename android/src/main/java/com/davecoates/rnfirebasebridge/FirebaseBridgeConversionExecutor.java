@@ -0,0 +1,160 @@
+package com.davecoates.rnfirebasebridge;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs snapshot conversion and event emission off the thread Firebase calls
+ * listeners on (the main thread on Android).
+ *
+ * Work is submitted through a serial executor per listener so events for a
+ * listener are always sent in the order they were received, while separate
+ * listeners can be converted in parallel when more than one thread is used.
+ */
+class FirebaseBridgeConversionExecutor {
+
+    static final int DEFAULT_THREADS = 1;
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    // null means run on the calling thread
+    private volatile ExecutorService pool;
+    private int threads;
+
+    private final Executor dispatcher = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            ExecutorService current = pool;
+            if (current == null) {
+                runnable.run();
+                return;
+            }
+            try {
+                current.execute(runnable);
+            } catch (RejectedExecutionException e) {
+                // Pool was replaced (or shut down) after we read it
+                if (pool != current) {
+                    execute(runnable);
+                }
+            }
+        }
+    };
+
+    FirebaseBridgeConversionExecutor() {
+        setThreads(DEFAULT_THREADS);
+    }
+
+    /**
+     * @param threads number of conversion threads; 0 converts on the thread the
+     *                Firebase callback is made on
+     */
+    synchronized void setThreads(int threads) {
+        if (pool != null && threads == this.threads) {
+            return;
+        }
+        ExecutorService previous = pool;
+        this.threads = threads;
+        pool = threads > 0 ? Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FirebaseBridgeConversion-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+        if (previous != null) {
+            // Anything already handed to the old pool still runs; later work for
+            // each listener goes to the new pool.
+            previous.shutdown();
+        }
+    }
+
+    synchronized int getThreads() {
+        return threads;
+    }
+
+    synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    Executor newSerialExecutor() {
+        return new SerialExecutor();
+    }
+
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Holds no lock while a task runs: with 0 threads tasks run on the caller
+     * and take their subscription's lock, while a subscription calls execute()
+     * holding it. A lock here would be taken in both orders.
+     */
+    private class SerialExecutor implements Executor {
+
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Set while a task is handed to the dispatcher, so one runs at a time
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private final Runnable runNext = new Runnable() {
+            @Override
+            public void run() {
+                Runnable task = tasks.poll();
+                try {
+                    if (task != null) {
+                        task.run();
+                    }
+                } finally {
+                    if (task != null) {
+                        queueDepth.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                    running.set(false);
+                    scheduleNext();
+                }
+            }
+        };
+
+        @Override
+        public void execute(final Runnable runnable) {
+            int depth = queueDepth.incrementAndGet();
+            int max;
+            while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+                // retry
+            }
+            tasks.add(runnable);
+            scheduleNext();
+        }
+
+        private void scheduleNext() {
+            // A task added after the check is scheduled by whoever added it
+            if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+                dispatcher.execute(runNext);
+            }
+        }
+    }
+
+}
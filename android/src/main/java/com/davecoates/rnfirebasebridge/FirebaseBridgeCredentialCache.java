@@ -1,23 +1,175 @@
 package com.davecoates.rnfirebasebridge;
 
+import android.support.annotation.Nullable;
 import com.google.firebase.auth.AuthCredential;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Credentials created by the auth provider modules, held until JS passes their
+ * id to signInWithCredential, link or reauthenticate.
+ *
+ * Credentials expire after a TTL and the oldest are dropped once there are more
+ * than maxEntries. Optionally a credential is removed once it has been used
+ * successfully. Expired credentials are swept by a timer which only runs while
+ * there is something in the cache.
+ */
 public class FirebaseBridgeCredentialCache {
 
-    static private Map<String, AuthCredential> credentialCache = new HashMap<>();
+    static final long DEFAULT_TTL_MS = 10 * 60 * 1000;
+    static final int DEFAULT_MAX_ENTRIES = 50;
 
-    static String addCredential(AuthCredential credential) {
-        UUID credentialUUID = UUID.randomUUID();
-        credentialCache.put(credentialUUID.toString(), credential);
-        return credentialUUID.toString();
+    private static class Entry {
+        final AuthCredential credential;
+        final long expiresAt;
+
+        Entry(AuthCredential credential, long expiresAt) {
+            this.credential = credential;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // Insertion ordered so the oldest are dropped first when over maxEntries
+    static private final LinkedHashMap<String, Entry> credentialCache = new LinkedHashMap<>();
+
+    static private long ttlMs = DEFAULT_TTL_MS;
+    static private int maxEntries = DEFAULT_MAX_ENTRIES;
+    static private boolean consumeOnUse = false;
+
+    static private ScheduledExecutorService sweeper;
+    static private ScheduledFuture<?> pendingSweep;
+    static private long pendingSweepAt;
+
+    private static final Runnable sweepTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (FirebaseBridgeCredentialCache.class) {
+                pendingSweep = null;
+                sweep();
+            }
+        }
+    };
+
+    static synchronized String addCredential(AuthCredential credential) {
+        sweep();
+        String id = UUID.randomUUID().toString();
+        credentialCache.put(id, new Entry(credential, now() + ttlMs));
+        Iterator<String> it = credentialCache.keySet().iterator();
+        while (credentialCache.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        scheduleSweep();
+        return id;
+    }
+
+    /**
+     * @return credential or null if it is unknown, has expired or was consumed
+     */
+    @Nullable
+    static synchronized AuthCredential getCredential(String id) {
+        Entry entry = credentialCache.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= now()) {
+            credentialCache.remove(id);
+            return null;
+        }
+        return entry.credential;
+    }
+
+    /**
+     * Call once a credential has been used successfully. Removes it if
+     * consumeOnUse is set.
+     */
+    static synchronized void used(String id) {
+        if (consumeOnUse) {
+            credentialCache.remove(id);
+        }
+    }
+
+    /**
+     * Change the given options; any that are null keep their current value.
+     * @param ttlMs how long a credential can be used for after it is created
+     * @param maxEntries most credentials held; the oldest are dropped first
+     * @param consumeOnUse remove a credential once it has been used successfully
+     */
+    static synchronized void configure(@Nullable Long ttlMs, @Nullable Integer maxEntries, @Nullable Boolean consumeOnUse) {
+        if (ttlMs != null) {
+            FirebaseBridgeCredentialCache.ttlMs = Math.max(0, ttlMs);
+        }
+        if (maxEntries != null) {
+            FirebaseBridgeCredentialCache.maxEntries = Math.max(1, maxEntries);
+        }
+        if (consumeOnUse != null) {
+            FirebaseBridgeCredentialCache.consumeOnUse = consumeOnUse;
+        }
+        sweep();
+        Iterator<String> it = credentialCache.keySet().iterator();
+        while (credentialCache.size() > FirebaseBridgeCredentialCache.maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    static synchronized int size() {
+        return credentialCache.size();
+    }
+
+    // Must hold lock. Checks every entry (there are at most maxEntries) as
+    // entries added before a TTL change can expire out of order.
+    private static void sweep() {
+        long now = now();
+        Iterator<Map.Entry<String, Entry>> it = credentialCache.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue().expiresAt <= now) {
+                it.remove();
+            }
+        }
+        scheduleSweep();
+    }
+
+    // Must hold lock. Schedules a sweep for the next expiry unless one is
+    // already scheduled by then.
+    private static void scheduleSweep() {
+        if (credentialCache.isEmpty()) {
+            return;
+        }
+        long nextExpiry = Long.MAX_VALUE;
+        for (Entry entry : credentialCache.values()) {
+            nextExpiry = Math.min(nextExpiry, entry.expiresAt);
+        }
+        if (pendingSweep != null) {
+            if (pendingSweepAt <= nextExpiry) {
+                return;
+            }
+            pendingSweep.cancel(false);
+        }
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FirebaseBridgeCredentialCache");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        pendingSweepAt = nextExpiry;
+        pendingSweep = sweeper.schedule(sweepTask, Math.max(0, nextExpiry - now()), TimeUnit.MILLISECONDS);
     }
 
-    static AuthCredential getCredential(String id) {
-        return credentialCache.get(id);
+    private static long now() {
+        return System.currentTimeMillis();
     }
 
 }
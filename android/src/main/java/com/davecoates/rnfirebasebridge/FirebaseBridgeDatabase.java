@@ -2,53 +2,109 @@ package com.davecoates.rnfirebasebridge;
 
 import android.support.annotation.Nullable;
 import com.facebook.react.bridge.*;
-import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.database.*;
 
-import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 
-class InvalidQueryException extends Exception {
-    public InvalidQueryException(String message) {
-        super(message);
-    }
-}
+public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
 
-class InvalidQueryParametersException extends Exception {
-    public InvalidQueryParametersException(String message) {
-        super(message);
-    }
-}
+    // Used for any delayed work such as flushing batched events
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FirebaseBridgeDatabase");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
-class DatabaseReferenceListenerPair {
-    public Query ref;
-    public ValueEventListener valueListener;
-    public ChildEventListener childListener;
-    public DatabaseReferenceListenerPair(Query ref, ValueEventListener listener) {
-        this.ref = ref;
-        this.valueListener = listener;
-    }
-    public DatabaseReferenceListenerPair(Query ref, ChildEventListener listener) {
-        this.ref = ref;
-        this.childListener = listener;
-    }
+    private final FirebaseBridgeEventBatcher eventBatcher;
 
-    public void unsubscribe() {
-        if (this.valueListener != null) {
-            this.ref.removeEventListener(this.valueListener);
-        }
-        if (this.childListener != null) {
-            this.ref.removeEventListener(this.childListener);
-        }
-    }
-}
+    private final FirebaseBridgeWriteCoalescer writeCoalescer = new FirebaseBridgeWriteCoalescer(scheduler);
 
-public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
+    private final FirebaseBridgeConversionExecutor conversionExecutor = new FirebaseBridgeConversionExecutor();
+
+    // Set while the host activity is paused; see the subscription option background
+    private volatile boolean paused = false;
 
+    // Error sent to every subscriber when listeners are removed on host destroy
+    private static final String HOST_DESTROYED_MESSAGE = "Listener removed because the host activity was destroyed";
 
     public FirebaseBridgeDatabase(ReactApplicationContext reactContext) {
         super(reactContext);
+        eventBatcher = new FirebaseBridgeEventBatcher(reactContext, scheduler);
+        LifecycleEventListener listener = new LifecycleEventListener() {
+            @Override
+            public void onHostResume() {
+                paused = false;
+                for (FirebaseBridgeDatabaseSubscription subscription : listeners.subscriptions()) {
+                    resume(subscription);
+                }
+            }
+
+            @Override
+            public void onHostPause() {
+                paused = true;
+                for (FirebaseBridgeDatabaseSubscription subscription : listeners.subscriptions()) {
+                    pause(subscription);
+                }
+            }
+
+            @Override
+            public void onHostDestroy() {
+                // The React context, and the JS holding these subscriber ids, can
+                // outlive the activity. Tell every subscriber its listener has gone
+                // so its cancel callback can subscribe again.
+                Map<FirebaseBridgeDatabaseSubscription, List<String>> removed = listeners.removeAll();
+                for (Map.Entry<FirebaseBridgeDatabaseSubscription, List<String>> entry : removed.entrySet()) {
+                    FirebaseBridgeDatabaseSubscription subscription = entry.getKey();
+                    if (subscription.isClosed()) {
+                        subscription.detach();
+                    }
+                    List<String> ids = entry.getValue();
+                    deliverError(subscription, ids.toArray(new String[ids.size()]), HOST_DESTROYED_MESSAGE);
+                }
+            }
+        };
+        reactContext.addLifecycleEventListener(listener);
+    }
+
+    /**
+     * Apply the subscription's background option now the app is paused
+     */
+    private void pause(FirebaseBridgeDatabaseSubscription subscription) {
+        switch (subscription.options.background) {
+            case COALESCE:
+                subscription.startHolding();
+                break;
+            case DETACH:
+                subscription.suspendListener();
+                break;
+        }
+    }
+
+    /**
+     * Send events held while paused, or attach the listener again, once resumed.
+     * A listener attached again is sent the current value (or, for child_added,
+     * every child) as when first attached.
+     */
+    private void resume(FirebaseBridgeDatabaseSubscription subscription) {
+        synchronized (subscription.holdLock) {
+            List<Runnable> held = subscription.stopHolding();
+            for (Runnable task : held) {
+                dispatchNow(subscription, task);
+            }
+        }
+        if (subscription.resumeListener()) {
+            attachListener(subscription);
+        }
     }
 
     @Override
@@ -56,69 +112,168 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
         return "FirebaseBridgeDatabase";
     }
 
-    private WritableMap convertRef(DatabaseReference ref) {
+    @Override
+    public void onCatalystInstanceDestroy() {
+        // Don't lose writes still being held
+        writeCoalescer.flushAll();
+        scheduler.shutdownNow();
+        conversionExecutor.shutdown();
+    }
 
-        final WritableMap m = Arguments.createMap();
-        String key = ref.getKey();
-        if (key == null) {
-            m.putString("key", "");
-        } else {
-            m.putString("key", ref.getKey());
-        }
-        m.putString("locationUrl", ref.toString());
+    /**
+     * Set number of threads used to convert snapshots and send events. Events
+     * for a listener are always sent in order. 0 converts on the thread Firebase
+     * calls the listener on (the main thread).
+     */
+    @ReactMethod
+    public void setConversionThreads(int threads) {
+        conversionExecutor.setThreads(threads);
+    }
+
+    @ReactMethod
+    public void getConversionQueueStats(Promise promise) {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("threads", conversionExecutor.getThreads());
+        stats.putInt("queueDepth", conversionExecutor.getQueueDepth());
+        stats.putInt("maxQueueDepth", conversionExecutor.getMaxQueueDepth());
+        stats.putDouble("completed", conversionExecutor.getCompleted());
+        promise.resolve(stats);
+    }
+
+    /**
+     * Enable batching of database events. Events are sent as a single
+     * databaseOnBatch event containing an array of what would otherwise be
+     * individual databaseOn events. Pass windowMs of 0 to disable.
+     * @param windowMs maximum time to hold an event before sending
+     * @param maxBatchSize send as soon as this many events are buffered
+     */
+    @ReactMethod
+    public void setEventBatching(int windowMs, int maxBatchSize) {
+        eventBatcher.configure(windowMs, maxBatchSize);
+    }
 
-        return m;
+    /**
+     * Convert a reference being returned to JS, including a handle that can be
+     * passed to resolve()
+     */
+    private WritableMap convertRef(String appName, DatabaseReference ref) {
+        WritableMap data = FirebaseBridgeSnapshotConverter.convertRef(ref);
+        data.putInt("handle", references.handle(appName, ref));
+        return data;
     }
 
     private DatabaseReference getRefFromUrl(String appName, String databaseUrl) {
-        FirebaseApp app = FirebaseApp.getInstance(appName);
-        if (databaseUrl == null) {
-            return FirebaseDatabase.getInstance(app).getReference();
-        }
-        return FirebaseDatabase.getInstance(app).getReferenceFromUrl(databaseUrl);
+        return references.get(appName, databaseUrl);
     }
 
     @ReactMethod
     public void child(String appName, String databaseUrl, String path, Promise promise) {
-        promise.resolve(convertRef(getRefFromUrl(appName, databaseUrl).child(path)));
+        promise.resolve(convertRef(appName, getRefFromUrl(appName, databaseUrl).child(path)));
     }
 
     @ReactMethod
     public void push(String appName, String databaseUrl, Promise promise) {
-        promise.resolve(convertRef(getRefFromUrl(appName, databaseUrl).push()));
+        promise.resolve(convertRef(appName, getRefFromUrl(appName, databaseUrl).push()));
     }
 
     /**
-     * Value is always an array where the first element is the value to set.
-     * This was the easiest way I could see to accept any value type without
-     * having to implement individual setters (eg. setValueString).
-     * @param databaseUrl
-     * @param value
+     * Navigate from the reference for handle in a single call. Each path op is
+     * an array of ['child', path], ['parent'], ['root'] or ['push'].
+     * Resolves with the final reference.
      */
     @ReactMethod
-    public void setValue(String appName, String databaseUrl, ReadableArray value, final Promise promise) {
-        DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
-        Object v = null;
+    public void resolve(int handle, ReadableArray pathOps, Promise promise) {
+        DatabaseReference ref = references.resolve(handle);
+        String appName = references.getAppName(handle);
+        if (ref == null || appName == null) {
+            promise.reject("invalid_ref_handle", "Reference handle " + handle + " is unknown or has been evicted");
+            return;
+        }
+        for (int i = 0; i < pathOps.size(); i++) {
+            ReadableArray op = pathOps.getArray(i);
+            String name = op.getString(0);
+            switch (name) {
+                case "child":
+                    ref = ref.child(op.getString(1));
+                    break;
+                case "parent":
+                    ref = ref.getParent();
+                    if (ref == null) {
+                        promise.reject("invalid_path_op", "Can't get parent of root");
+                        return;
+                    }
+                    break;
+                case "root":
+                    ref = ref.getRoot();
+                    break;
+                case "push":
+                    ref = ref.push();
+                    break;
+                default:
+                    promise.reject("invalid_path_op", "Unknown path op " + name);
+                    return;
+            }
+        }
+        promise.resolve(convertRef(appName, ref));
+    }
+
+    @ReactMethod
+    public void getReferenceCacheStats(Promise promise) {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("size", references.size());
+        stats.putInt("handles", references.handleCount());
+        stats.putDouble("hits", references.getHits());
+        stats.putDouble("misses", references.getMisses());
+        promise.resolve(stats);
+    }
+
+    /**
+     * Read value wrapped in an array (see setValue) into something that can be
+     * passed to the SDK.
+     */
+    static Object readValue(ReadableArray value) {
         switch(value.getType(0)) {
-            case Null:
-                v = null;
-                break;
             case Boolean:
-                v = value.getBoolean(0);
-                break;
+                return value.getBoolean(0);
             case Number:
-                v = value.getDouble(0);
-                break;
+                return value.getDouble(0);
             case String:
-                v = value.getString(0);
-                break;
+                return value.getString(0);
             case Map:
-                v = ((ReadableNativeMap)value.getMap(0)).toHashMap();
-                break;
+                return ((ReadableNativeMap)value.getMap(0)).toHashMap();
             case Array:
-                v = ((ReadableNativeArray)value.getArray(0)).toArrayList();
-                break;
+                return ((ReadableNativeArray)value.getArray(0)).toArrayList();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Read priority wrapped in an array (see setValueWithPriority)
+     */
+    static Object readPriority(ReadableArray priority) {
+        switch(priority.getType(0)) {
+            case Number:
+                return priority.getDouble(0);
+            case String:
+                return priority.getString(0);
+            default:
+                return null;
         }
+    }
+
+    /**
+     * Value is always an array where the first element is the value to set.
+     * This was the easiest way I could see to accept any value type without
+     * having to implement individual setters (eg. setValueString).
+     * @param databaseUrl
+     * @param value
+     */
+    @ReactMethod
+    public void setValue(String appName, String databaseUrl, ReadableArray value, final Promise promise) {
+        DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
+        writeCoalescer.flushOverlapping(ref);
+        Object v = readValue(value);
         ref.setValue(v, new DatabaseReference.CompletionListener() {
             @Override
             public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
@@ -142,36 +297,9 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
     @ReactMethod
     public void setValueWithPriority(String appName, String databaseUrl, ReadableArray value, ReadableArray priority, final Promise promise) {
         DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
-        Object v = null;
-        switch(value.getType(0)) {
-            case Null:
-                v = null;
-                break;
-            case Boolean:
-                v = value.getBoolean(0);
-                break;
-            case Number:
-                v = value.getDouble(0);
-                break;
-            case String:
-                v = value.getString(0);
-                break;
-            case Map:
-                v = ((ReadableNativeMap)value.getMap(0)).toHashMap();
-                break;
-            case Array:
-                v = ((ReadableNativeArray)value.getArray(0)).toArrayList();
-                break;
-        }
-        Object p = null;
-        switch(priority.getType(0)) {
-            case Number:
-                p = priority.getDouble(0);
-                break;
-            case String:
-                p = priority.getString(0);
-                break;
-        }
+        writeCoalescer.flushOverlapping(ref);
+        Object v = readValue(value);
+        Object p = readPriority(priority);
         ref.setValue(v, p, new DatabaseReference.CompletionListener() {
             @Override
             public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
@@ -197,6 +325,7 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
             }
         };
         DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
+        writeCoalescer.flushOverlapping(ref);
         switch(value.getType(0)) {
             case Number:
                 ref.setPriority(value.getDouble(0), listener);
@@ -219,6 +348,7 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
     @ReactMethod
     public void removeValue(String appName, String databaseUrl, final Promise promise) {
         DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
+        writeCoalescer.flushOverlapping(ref);
         ref.removeValue(new DatabaseReference.CompletionListener() {
             @Override
             public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
@@ -231,9 +361,65 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
         });
     }
 
+    /**
+     * Like setValue but held for windowMs (from the first held write) so
+     * repeated writes to the same path are sent once, with the latest value.
+     * Every promise, including those of replaced values, settles once its
+     * path has been written. Other writes to an overlapping location send
+     * what is held first. See FirebaseBridgeWriteCoalescer.
+     */
+    @ReactMethod
+    public void setValueCoalesced(String appName, String databaseUrl, ReadableArray value, double windowMs, Promise promise) {
+        writeCoalescer.set(getRefFromUrl(appName, databaseUrl), readValue(value), (long)windowMs, promise);
+    }
+
+    /**
+     * Send writes held by setValueCoalesced now rather than at the end of
+     * their window
+     */
+    @ReactMethod
+    public void flushCoalescedWrites() {
+        writeCoalescer.flushAll();
+    }
+
+    @ReactMethod
+    public void getCoalescedWriteStats(Promise promise) {
+        WritableMap stats = Arguments.createMap();
+        stats.putDouble("writes", writeCoalescer.getWrites());
+        stats.putDouble("superseded", writeCoalescer.getSuperseded());
+        stats.putDouble("flushes", writeCoalescer.getFlushes());
+        stats.putInt("pending", writeCoalescer.getPendingWrites());
+        promise.resolve(stats);
+    }
+
+    /**
+     * Run an atomic operation at databaseUrl with a transaction. The SDK's
+     * retries all happen natively; see FirebaseBridgeTransaction.
+     *
+     * @param type increment, decrement, max, min, append or compareAndSet
+     * @param value operand wrapped in an array as for setValue
+     * @param expected value required by compareAndSet, wrapped in an array;
+     *                 null otherwise
+     */
+    @ReactMethod
+    public void runTransaction(String appName, String databaseUrl, String type, ReadableArray value,
+            @Nullable ReadableArray expected, Promise promise) {
+        FirebaseBridgeTransaction.Type transactionType = FirebaseBridgeTransaction.parseType(type);
+        if (transactionType == null) {
+            promise.reject("unknown_operation", "Unknown transaction operation " + type);
+            return;
+        }
+        Object expectedValue = expected != null && expected.size() > 0 ? readValue(expected) : null;
+        DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
+        writeCoalescer.flushOverlapping(ref);
+        ref.runTransaction(
+                new FirebaseBridgeTransaction(transactionType, readValue(value), expectedValue, promise));
+    }
+
     @ReactMethod
     public void update(String appName, String databaseUrl, ReadableMap value, final Promise promise) {
         DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
+        writeCoalescer.flushOverlapping(ref);
         ref.updateChildren(((ReadableNativeMap)value).toHashMap(), new DatabaseReference.CompletionListener() {
             @Override
             public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
@@ -246,190 +432,251 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
         });
     }
 
-    private void sendSnapshotEvent(String id, DataSnapshot snapshot) {
-        WritableMap params = Arguments.createMap();
-        params.putMap("snapshot", convertSnapshot(snapshot));
-        params.putString("id", id);
-        ReactContext reactContext = getReactApplicationContext();
-        reactContext
-                .getJSModule(RCTNativeAppEventEmitter.class)
-                .emit("databaseOn", params);
+    /**
+     * Run several writes in one call. Each operation is a map with a type (set,
+     * setWithPriority, setPriority, remove or update) and url. value and
+     * priority are wrapped in an array as for setValue except for update where
+     * value is the map of children to update.
+     *
+     * Resolves once all writes have completed with an array containing a result
+     * for each operation: {ok: true} or {ok: false, code, message}.
+     */
+    @ReactMethod
+    public void batchWrite(String appName, ReadableArray ops, Promise promise) {
+        List<FirebaseBridgeBatchWrite.Op> parsed = new ArrayList<>(ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            FirebaseBridgeBatchWrite.Op op = ops.getType(i) == ReadableType.Map ? readBatchOp(appName, ops.getMap(i)) : null;
+            if (op != null) {
+                writeCoalescer.flushOverlapping(op.ref);
+            }
+            parsed.add(op);
+        }
+        FirebaseBridgeBatchWrite.run(parsed, promise);
     }
 
-    private void sendSnapshotEvent(String id, DatabaseError error) {
+    @Nullable
+    private FirebaseBridgeBatchWrite.Op readBatchOp(String appName, ReadableMap op) {
+        if (!op.hasKey("type") || !op.hasKey("url")) {
+            return null;
+        }
+        DatabaseReference ref = getRefFromUrl(appName, op.getString("url"));
+        boolean hasValue = op.hasKey("value") && op.getType("value") == ReadableType.Array;
+        boolean hasPriority = op.hasKey("priority") && op.getType("priority") == ReadableType.Array;
+        switch (op.getString("type")) {
+            case "set":
+                if (!hasValue) {
+                    return null;
+                }
+                return new FirebaseBridgeBatchWrite.Op(FirebaseBridgeBatchWrite.Type.SET, ref, readValue(op.getArray("value")), null);
+            case "setWithPriority":
+                if (!hasValue || !hasPriority) {
+                    return null;
+                }
+                return new FirebaseBridgeBatchWrite.Op(FirebaseBridgeBatchWrite.Type.SET_WITH_PRIORITY, ref,
+                        readValue(op.getArray("value")), readPriority(op.getArray("priority")));
+            case "setPriority":
+                if (!hasPriority) {
+                    return null;
+                }
+                return new FirebaseBridgeBatchWrite.Op(FirebaseBridgeBatchWrite.Type.SET_PRIORITY, ref, null, readPriority(op.getArray("priority")));
+            case "remove":
+                return new FirebaseBridgeBatchWrite.Op(FirebaseBridgeBatchWrite.Type.REMOVE, ref, null, null);
+            case "update":
+                if (!op.hasKey("value") || op.getType("value") != ReadableType.Map) {
+                    return null;
+                }
+                return new FirebaseBridgeBatchWrite.Op(FirebaseBridgeBatchWrite.Type.UPDATE, ref,
+                        ((ReadableNativeMap)op.getMap("value")).toHashMap(), null);
+            default:
+                return null;
+        }
+    }
+
+    private void sendSnapshotEvent(String id, DataSnapshot snapshot, FirebaseBridgeSubscriptionOptions options, @Nullable FirebaseBridgeListenerStats stats) {
+        sendSnapshotEvent(new String[] { id }, snapshot, options, stats);
+    }
+
+    /**
+     * Send a single event for all of ids. The snapshot is converted once and, if
+     * cached, holds a reference for each id as each JS listener releases it.
+     */
+    private void sendSnapshotEvent(String[] ids, DataSnapshot snapshot, FirebaseBridgeSubscriptionOptions options, @Nullable FirebaseBridgeListenerStats stats) {
+        sendSnapshotEvent(ids, snapshot, options, stats, Arguments.createMap());
+    }
+
+    /**
+     * Child event; includes which event it was and the key of the previous
+     * child (null for the first child and for child_removed).
+     */
+    private void sendChildEvent(String[] ids, DataSnapshot snapshot, FirebaseBridgeSubscriptionOptions options,
+            @Nullable FirebaseBridgeListenerStats stats, String eventType, @Nullable String previousChildName) {
         WritableMap params = Arguments.createMap();
-        params.putString("error", error.getMessage());
-        params.putString("id", id);
-        ReactContext reactContext = getReactApplicationContext();
-        reactContext
-                .getJSModule(RCTNativeAppEventEmitter.class)
-                .emit("databaseOn", params);
-    }
-
-    private WritableArray convertSnapshotList(Iterable<DataSnapshot> values) {
-        WritableArray data = Arguments.createArray();
-        for (DataSnapshot child : values) {
-            Object value = child.getValue();
-            switch (value.getClass().getName()) {
-                case "java.lang.Boolean":
-                    data.pushBoolean((Boolean)value);
-                    break;
-                case "java.lang.Long":
-                    Long v = (Long)value;
-                    data.pushDouble(v.doubleValue());
-                    break;
-                case "java.lang.Integer":
-                    data.pushInt((Integer)value);
-                    break;
-                case "java.lang.Double":
-                    data.pushDouble((Double)value);
-                    break;
-                case "java.lang.String":
-                    data.pushString((String)value);
-                    break;
-                case "java.util.HashMap":
-                    WritableMap childMap = convertSnapshotMap(child.getChildren());
-                    data.pushMap(childMap);
-                    break;
-                case "java.util.ArrayList":
-                    WritableArray childList = convertSnapshotList(child.getChildren());
-                    data.pushArray(childList);
-                    break;
-                default:
-                    data.pushNull();
-                    break;
-            }
+        params.putString("eventType", eventType);
+        if (previousChildName == null) {
+            params.putNull("previousChildName");
+        } else {
+            params.putString("previousChildName", previousChildName);
         }
-        return data;
+        sendSnapshotEvent(ids, snapshot, options, stats, params);
     }
 
-    private WritableMap convertSnapshotMap(Iterable<DataSnapshot> values) {
-        WritableMap data = Arguments.createMap();
-        for (DataSnapshot child : values) {
-            Object value = child.getValue();
-            switch (value.getClass().getName()) {
-                case "java.lang.Boolean":
-                    data.putBoolean(child.getKey(), (Boolean)value);
-                    break;
-                case "java.lang.Long":
-                    Long v = (Long)value;
-                    data.putDouble(child.getKey(), v.doubleValue());
-                    break;
-                case "java.lang.Integer":
-                    data.putInt(child.getKey(), (Integer)value);
-                    break;
-                case "java.lang.Double":
-                    data.putDouble(child.getKey(), (Double)value);
-                    break;
-                case "java.lang.String":
-                    data.putString(child.getKey(), (String)value);
-                    break;
-                case "java.util.HashMap":
-                    WritableMap childMap = convertSnapshotMap(child.getChildren());
-                    data.putMap(child.getKey(), childMap);
-                    break;
-                case "java.util.ArrayList":
-                    data.putArray(child.getKey(), convertSnapshotList(child.getChildren()));
-                    break;
-                default:
-                    data.putNull(child.getKey());
-                    break;
+    private void sendSnapshotEvent(String[] ids, DataSnapshot snapshot, FirebaseBridgeSubscriptionOptions options,
+            @Nullable FirebaseBridgeListenerStats stats, WritableMap params) {
+        if (ids.length == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        long valueSize = options.inlineThreshold > 0 ? FirebaseBridgeSnapshotConverter.estimateValueSize(snapshot, options.inlineThreshold) : -1;
+        long payloadBytes = DESCRIPTOR_BYTES;
+        if (valueSize >= 0 && valueSize <= options.inlineThreshold) {
+            params.putMap("snapshot", convertSnapshotInline(snapshot, options.jsonEncoding));
+            payloadBytes += valueSize;
+        } else {
+            WritableMap data = FirebaseBridgeSnapshotConverter.describe(snapshot);
+            String uuid = snapshotCache.put(snapshot, stats);
+            for (int i = 1; i < ids.length; i++) {
+                snapshotCache.retain(uuid);
             }
+            data.putString("uuid", uuid);
+            params.putMap("snapshot", data);
         }
-        return data;
+        putEventIds(params, ids);
+        eventBatcher.emit(params);
+        recordEvent(stats, System.nanoTime() - start, payloadBytes);
     }
 
-    @ReactMethod
-    public void snapshotValue(String snapshotUUID, Promise promise) {
-        DataSnapshot snapshot = snapshotCache.get(snapshotUUID);
-        if (null == snapshot) {
-            promise.reject("snapshot_not_found", "Snapshot not found; it may have been released.");
-            return;
+    private void recordEvent(@Nullable FirebaseBridgeListenerStats stats, long nanos, long payloadBytes) {
+        totalStats.recordEvent(nanos, payloadBytes);
+        if (stats != null) {
+            stats.recordEvent(nanos, payloadBytes);
         }
+    }
 
-        Object value = snapshot.getValue();
-        if (value == null) {
-            promise.resolve(null);
+    /**
+     * Send the changes from previous to next as a list of patches. Nothing is
+     * sent if they are identical. previous of null sends the whole value as a
+     * single patch.
+     */
+    private void sendDeltaEvent(String[] ids, @Nullable DataSnapshot previous, DataSnapshot next, @Nullable FirebaseBridgeListenerStats stats) {
+        if (ids.length == 0) {
             return;
         }
-        switch (value.getClass().getName()) {
-            case "java.lang.Boolean":
-                promise.resolve((Boolean)value);
-                break;
-            case "java.lang.Long":
-                promise.resolve(((Long)value).doubleValue());
-                break;
-            case "java.lang.Integer":
-                promise.resolve((Integer)value);
-                break;
-            case "java.lang.Double":
-                promise.resolve((Double)value);
-                break;
-            case "java.lang.String":
-                promise.resolve((String)value);
-                break;
-            case "java.util.HashMap":
-                promise.resolve(convertSnapshotMap(snapshot.getChildren()));
-                break;
-            case "java.util.ArrayList":
-                promise.resolve(convertSnapshotList(snapshot.getChildren()));
-                break;
-            default:
-                promise.reject("unhandled_value_type", value.getClass().getName());
+        long start = System.nanoTime();
+        FirebaseBridgeSnapshotDiff diff = FirebaseBridgeSnapshotDiff.compute(previous, next);
+        WritableArray patches = diff.getPatches();
+        if (patches == null) {
+            return;
         }
+        WritableMap params = Arguments.createMap();
+        params.putArray("delta", patches);
+        putEventIds(params, ids);
+        eventBatcher.emit(params);
+        recordEvent(stats, System.nanoTime() - start, diff.getEstimatedBytes());
     }
 
-    @ReactMethod
-    public void snapshotExportValue(String snapshotUUID, Promise promise) {
-        DataSnapshot snapshot = snapshotCache.get(snapshotUUID);
-        if (null == snapshot) {
-            promise.reject("snapshot_not_found", "Snapshot not found");
-            return;
+    private void sendSnapshotEventOn(Executor executor, final String id, final DataSnapshot snapshot, final FirebaseBridgeSubscriptionOptions options) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendSnapshotEvent(id, snapshot, options, null);
+            }
+        });
+    }
+
+    private void sendSnapshotEventOn(Executor executor, final String id, final DatabaseError error) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendSnapshotEvent(id, error, null);
+            }
+        });
+    }
+
+    private void sendSnapshotEvent(String id, DatabaseError error, @Nullable FirebaseBridgeListenerStats stats) {
+        sendSnapshotEvent(new String[] { id }, error, stats);
+    }
+
+    private void sendSnapshotEvent(String[] ids, DatabaseError error, @Nullable FirebaseBridgeListenerStats stats) {
+        sendErrorEvent(ids, error.getMessage(), stats);
+    }
+
+    private void sendErrorEvent(String[] ids, String message, @Nullable FirebaseBridgeListenerStats stats) {
+        totalStats.recordError();
+        if (stats != null) {
+            stats.recordError();
         }
+        WritableMap params = Arguments.createMap();
+        params.putString("error", message);
+        putEventIds(params, ids);
+        eventBatcher.emit(params);
+    }
 
-        Object value = snapshot.getValue(true);
-        switch (value.getClass().getName()) {
-            case "java.lang.Boolean":
-                promise.resolve((Boolean)value);
-                break;
-            case "java.lang.Integer":
-                promise.resolve((Integer)value);
-                break;
-            case "java.lang.Double":
-                promise.resolve((Double)value);
-                break;
-            case "java.lang.String":
-                promise.resolve((String)value);
-                break;
-            case "java.util.HashMap":
-                promise.resolve(convertSnapshotMap(snapshot.getChildren()));
-                break;
-            case "java.util.ArrayList":
-                promise.resolve(convertSnapshotList(snapshot.getChildren()));
-                break;
-            default:
-                promise.resolve(null);
+    private void putEventIds(WritableMap params, String[] ids) {
+        // id is kept for a single subscriber for backwards compatibility
+        params.putString("id", ids[0]);
+        WritableArray idList = Arguments.createArray();
+        for (String id : ids) {
+            idList.pushString(id);
         }
+        params.putArray("ids", idList);
     }
 
+    /**
+     * @param options optional projection; fields is a list of key whitelists for
+     *                each level of children and below maxDepth levels children
+     *                are sent as {".childrenCount": n}. See
+     *                FirebaseBridgeSnapshotProjection. If encoding is 'json' the
+     *                promise resolves with the value as a JSON string.
+     */
     @ReactMethod
-    public void snapshotChild(String snapshotUUID, String path, Promise promise)
-    {
-        DataSnapshot snapshot = snapshotCache.get(snapshotUUID);
+    public void snapshotValue(String snapshotUUID, @Nullable ReadableMap options, Promise promise) {
+        DataSnapshot snapshot = getCachedSnapshot(snapshotUUID, promise);
         if (null == snapshot) {
-            promise.reject("snapshot_not_found", "Snapshot not found");
             return;
         }
-        DataSnapshot childSnapshot = snapshot.child(path);
-        promise.resolve(convertSnapshot(childSnapshot));
+
+        FirebaseBridgeSnapshotProjection projection = FirebaseBridgeSnapshotProjection.fromMap(options);
+        if (FirebaseBridgeSnapshotJsonWriter.isRequested(options)) {
+            promise.resolve(FirebaseBridgeSnapshotJsonWriter.write(snapshot, false, projection));
+            return;
+        }
+        FirebaseBridgeSnapshotConverter.resolveValue(promise, snapshot, false, projection);
     }
 
+
+    @ReactMethod
+    public void snapshotExportValue(String snapshotUUID, Promise promise) {
+        DataSnapshot snapshot = getCachedSnapshot(snapshotUUID, promise);
+        if (null == snapshot) {
+            return;
+        }
+
+        FirebaseBridgeSnapshotConverter.resolveValue(promise, snapshot, true);
+    }
+
+    @ReactMethod
+    public void snapshotChild(String snapshotUUID, String path, Promise promise)
+    {
+        DataSnapshot snapshot = getCachedSnapshot(snapshotUUID, promise);
+        if (null == snapshot) {
+            return;
+        }
+        DataSnapshot childSnapshot = snapshot.child(path);
+        promise.resolve(convertSnapshot(childSnapshot));
+    }
+
+    /**
+     * Converts and caches every child up front. JS iterates children with
+     * openChildrenCursor / nextChildren instead; this is kept for callers of
+     * the native module written against earlier versions.
+     * @deprecated use openChildrenCursor
+     */
+    @Deprecated
     @ReactMethod
     public void snapshotChildren(String snapshotUUID, Promise promise)
     {
-        DataSnapshot snapshot = snapshotCache.get(snapshotUUID);
+        DataSnapshot snapshot = getCachedSnapshot(snapshotUUID, promise);
         if (null == snapshot) {
-            promise.reject("snapshot_not_found", "Snapshot not found");
             return;
         }
         WritableArray snapshots = Arguments.createArray();
@@ -439,12 +686,103 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
         promise.resolve(snapshots);
     }
 
+    /**
+     * Start iterating children of a snapshot pageSize at a time. Unlike the
+     * deprecated snapshotChildren nothing is converted or cached until requested. Resolves
+     * with {cursorId, childrenCount}; close with closeCursor when done.
+     */
+    @ReactMethod
+    public void openChildrenCursor(String snapshotUUID, int pageSize, Promise promise)
+    {
+        DataSnapshot snapshot = getCachedSnapshot(snapshotUUID, promise);
+        if (null == snapshot) {
+            return;
+        }
+        String cursorId = UUID.randomUUID().toString();
+        synchronized (cursors) {
+            cursors.put(cursorId, new FirebaseBridgeChildrenCursor(snapshot, pageSize));
+        }
+        WritableMap data = Arguments.createMap();
+        data.putString("cursorId", cursorId);
+        data.putDouble("childrenCount", snapshot.getChildrenCount());
+        promise.resolve(data);
+    }
+
+    /**
+     * Resolves with {children, done} for the next page. Each child is described
+     * (key, childrenCount etc) but has no uuid; use cursorChild with its index
+     * to get one while the page is current.
+     */
+    @ReactMethod
+    public void nextChildren(String cursorId, Promise promise)
+    {
+        FirebaseBridgeChildrenCursor cursor = getCursor(cursorId, promise);
+        if (cursor == null) {
+            return;
+        }
+        WritableArray children = Arguments.createArray();
+        boolean done;
+        synchronized (cursor) {
+            List<DataSnapshot> page = cursor.next();
+            // Read with the page so a concurrent next() can't be seen between them
+            done = cursor.isDone();
+            int index = cursor.getPageStart();
+            for (DataSnapshot child : page) {
+                WritableMap data = FirebaseBridgeSnapshotConverter.describe(child);
+                data.putString("cursorId", cursorId);
+                data.putInt("index", index++);
+                children.pushMap(data);
+            }
+        }
+        WritableMap data = Arguments.createMap();
+        data.putArray("children", children);
+        data.putBoolean("done", done);
+        promise.resolve(data);
+    }
+
+    /**
+     * Cache a child from the cursor's current page, resolving with the same
+     * descriptor as snapshotChild.
+     */
+    @ReactMethod
+    public void cursorChild(String cursorId, int index, Promise promise)
+    {
+        FirebaseBridgeChildrenCursor cursor = getCursor(cursorId, promise);
+        if (cursor == null) {
+            return;
+        }
+        DataSnapshot child = cursor.get(index);
+        if (child == null) {
+            promise.reject("cursor_child_not_found", "Child " + index + " is not in the cursor's current page");
+            return;
+        }
+        promise.resolve(convertSnapshot(child));
+    }
+
+    @ReactMethod
+    public void closeCursor(String cursorId)
+    {
+        synchronized (cursors) {
+            cursors.remove(cursorId);
+        }
+    }
+
+    private FirebaseBridgeChildrenCursor getCursor(String cursorId, Promise promise) {
+        FirebaseBridgeChildrenCursor cursor;
+        synchronized (cursors) {
+            cursor = cursors.get(cursorId);
+        }
+        if (cursor == null) {
+            promise.reject("cursor_not_found", "Cursor not found; it may have been closed.");
+        }
+        return cursor;
+    }
+
     @ReactMethod
     public void snapshotHasChild(String snapshotUUID, String path, Promise promise)
     {
-        DataSnapshot snapshot = snapshotCache.get(snapshotUUID);
+        DataSnapshot snapshot = getCachedSnapshot(snapshotUUID, promise);
         if (null == snapshot) {
-            promise.reject("snapshot_not_found", "Snapshot not found");
             return;
         }
         promise.resolve(snapshot.hasChild(path));
@@ -453,135 +791,233 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
     @ReactMethod
     public void releaseSnapshot(String snapshotUUID)
     {
-        if (snapshotCache.containsKey(snapshotUUID)) {
-            snapshotCache.remove(snapshotUUID);
+        snapshotCache.release(snapshotUUID);
+    }
+
+    @ReactMethod
+    public void setSnapshotCacheLimits(int maxEntries, double maxBytes)
+    {
+        snapshotCache.setLimits(maxEntries, (long)maxBytes);
+    }
+
+    @ReactMethod
+    public void getSnapshotCacheStats(Promise promise)
+    {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("size", snapshotCache.size());
+        stats.putDouble("bytes", snapshotCache.getBytes());
+        stats.putInt("maxEntries", snapshotCache.getMaxEntries());
+        stats.putDouble("maxBytes", snapshotCache.getMaxBytes());
+        stats.putDouble("pinnedBytes", snapshotCache.getPinnedBytes());
+        stats.putDouble("hits", snapshotCache.getHits());
+        stats.putDouble("misses", snapshotCache.getMisses());
+        stats.putDouble("evictions", snapshotCache.getEvictions());
+        stats.putDouble("overBudget", snapshotCache.getOverBudget());
+        promise.resolve(stats);
+    }
+
+    /**
+     * @param maxBytes estimated bytes all mirrors can hold; the least recently
+     *                 read are evicted first
+     * @param idleMs mirrors not read for this long are evicted
+     */
+    @ReactMethod
+    public void setMirrorLimits(double maxBytes, double idleMs)
+    {
+        mirrors.setLimits((long)maxBytes, (long)idleMs);
+    }
+
+    @ReactMethod
+    public void getMirrorStats(Promise promise)
+    {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("size", mirrors.size());
+        stats.putDouble("bytes", mirrors.getBytes());
+        stats.putDouble("maxBytes", mirrors.getMaxBytes());
+        stats.putDouble("idleMs", mirrors.getIdleMs());
+        stats.putDouble("hits", mirrors.getHits());
+        stats.putDouble("misses", mirrors.getMisses());
+        stats.putDouble("evictions", mirrors.getEvictions());
+        promise.resolve(stats);
+    }
+
+    /**
+     * Stats for each active subscription and totals across all listeners
+     * (including once). Totals are kept when a subscription is removed.
+     */
+    @ReactMethod
+    public void getStats(Promise promise)
+    {
+        WritableMap data = Arguments.createMap();
+        WritableMap totals = totalStats.toMap();
+        totals.putDouble("pinnedBytes", snapshotCache.getPinnedBytes());
+        data.putMap("totals", totals);
+        data.putArray("conversionTimeBucketsMs", FirebaseBridgeListenerStats.bucketBoundsMs());
+        WritableArray listenerStats = Arguments.createArray();
+        for (FirebaseBridgeDatabaseSubscription subscription : listeners.subscriptions()) {
+            WritableMap listener = subscription.stats.toMap();
+            listener.putString("eventType", subscription.eventType);
+            listener.putString("location", subscription.ref.getRef().toString());
+            if (subscription.throttle != null) {
+                listener.putInt("queued", subscription.throttle.getQueueSize());
+            }
+            WritableArray subscriberIds = Arguments.createArray();
+            for (String id : subscription.getSubscriberIds()) {
+                subscriberIds.pushString(id);
+            }
+            listener.putArray("subscriberIds", subscriberIds);
+            listenerStats.pushMap(listener);
+        }
+        data.putArray("listeners", listenerStats);
+        promise.resolve(data);
+    }
+
+    @ReactMethod
+    public void resetStats()
+    {
+        totalStats.reset();
+        for (FirebaseBridgeDatabaseSubscription subscription : listeners.subscriptions()) {
+            subscription.stats.reset();
         }
     }
 
-    private Map<String, DataSnapshot> snapshotCache = new HashMap<>();
+    private final FirebaseBridgeSnapshotCache snapshotCache = new FirebaseBridgeSnapshotCache();
+    private final FirebaseBridgeMirrorCache mirrors = new FirebaseBridgeMirrorCache();
+
+    private final FirebaseBridgeListenerStats totalStats = new FirebaseBridgeListenerStats();
+
+    // Rough size of a snapshot description (key, ref, counts and uuid)
+    private static final long DESCRIPTOR_BYTES = 256;
+
+    /**
+     * Lookup snapshot by handle. If not found promise is rejected and null returned.
+     */
+    private DataSnapshot getCachedSnapshot(String snapshotUUID, Promise promise) {
+        DataSnapshot snapshot = snapshotCache.get(snapshotUUID);
+        if (null == snapshot) {
+            if (snapshotCache.wasEvicted(snapshotUUID)) {
+                promise.reject("snapshot_evicted", "Snapshot was evicted from the snapshot cache before it was used.");
+            } else {
+                promise.reject("snapshot_not_found", "Snapshot not found; it may have been released.");
+            }
+        }
+        return snapshot;
+    }
 
     private WritableMap convertSnapshot(DataSnapshot snapshot) {
-        UUID id = UUID.randomUUID();
-        snapshotCache.put(id.toString(), snapshot);
+        WritableMap data = FirebaseBridgeSnapshotConverter.describe(snapshot);
+        data.putString("uuid", snapshotCache.put(snapshot));
+        return data;
+    }
 
-        WritableMap data = Arguments.createMap();
-        data.putMap("ref", convertRef(snapshot.getRef()));
-        data.putDouble("childrenCount", (double)snapshot.getChildrenCount());
-        data.putBoolean("hasChildren", snapshot.hasChildren());
-        data.putBoolean("exists", snapshot.exists());
-        data.putString("uuid", id.toString());
-        Object priority = snapshot.getPriority();
-        if (priority instanceof String) {
-            data.putString("priority", (String)priority);
-        } else if (priority instanceof Double) {
-            data.putDouble("priority", (Double)priority);
+    /**
+     * Convert snapshot including its value rather than caching it. There is no
+     * uuid so no further native calls can be made against the snapshot.
+     */
+    private WritableMap convertSnapshotInline(DataSnapshot snapshot, boolean jsonEncoding) {
+        WritableMap data = FirebaseBridgeSnapshotConverter.describe(snapshot);
+        if (jsonEncoding) {
+            data.putString("valueJson", FirebaseBridgeSnapshotJsonWriter.write(snapshot, false, null));
         } else {
-            data.putNull("priority");
+            FirebaseBridgeSnapshotConverter.putValue(data, "value", snapshot, false);
         }
-
         return data;
     }
 
-    private Map<String, DatabaseReferenceListenerPair> listenersByUUID = new HashMap<>();
+    // Shared subscriptions by key (see subscriptionKey()) and by subscriber id
+    // (as returned from on())
+    private final FirebaseBridgeListenerRegistry listeners = new FirebaseBridgeListenerRegistry();
+
+    private String subscriptionKey(String appName, Query ref, String eventType, FirebaseBridgeQueryPlan plan, FirebaseBridgeSubscriptionOptions options) {
+        return appName + "\n" + ref.getRef().toString() + "\n" + plan.canonical + "\n"
+                + eventType + "\n" + options.canonicalKey();
+    }
+
+    private final FirebaseBridgeQueryPlan.Cache queryPlans = new FirebaseBridgeQueryPlan.Cache();
+    private final FirebaseBridgeReferenceTable references = new FirebaseBridgeReferenceTable();
+
+    // Cursors JS didn't close (eg. an exception in a forEach callback) are
+    // dropped once there are too many open
+    private static final int MAX_OPEN_CURSORS = 100;
+    private final Map<String, FirebaseBridgeChildrenCursor> cursors = new LinkedHashMap<String, FirebaseBridgeChildrenCursor>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FirebaseBridgeChildrenCursor> eldest) {
+            return size() > MAX_OPEN_CURSORS;
+        }
+    };
 
     private Query queryRef(String appName, String databaseUrl, ReadableArray query) throws InvalidQueryException, InvalidQueryParametersException {
-        Query ref = getRefFromUrl(appName, databaseUrl);
-        for (int i = 0; i< query.size(); i++) {
-            ReadableArray queryDescriptor = query.getArray(i);
-            String fnName = queryDescriptor.getString(0);
-            int paramCount = queryDescriptor.size() - 1;
-            switch(fnName) {
-                case "orderByChild":
-                    ref = ref.orderByChild(queryDescriptor.getString(1));
-                    break;
-                case "orderByKey":
-                    ref = ref.orderByKey();
-                    break;
-                case "orderByPriority":
-                    ref = ref.orderByPriority();
-                    break;
-                case "orderByValue":
-                    ref = ref.orderByValue();
-                    break;
-                case "startAt":
-                case "endAt":
-                case "equalTo":
-                    if (paramCount < 1 || paramCount > 2) {
-                        throw new InvalidQueryParametersException(
-                                fnName + " takes either 1 or two parameters");
-                    }
-                    if (paramCount == 2 && queryDescriptor.getType(2) != ReadableType.String) {
-                        throw new InvalidQueryParametersException(
-                                fnName + " second parameter must be a string"
-                        );
-                    }
-                    Class<?>[] paramTypes = new Class[paramCount];
-                    if (paramCount == 2) {
-                        paramTypes[1] = String.class;
-                    }
-                    Method method;
-                    try {
-                        switch (queryDescriptor.getType(1)) {
-                            case Boolean:
-                                boolean b = queryDescriptor.getBoolean(1);
-                                paramTypes[0] = boolean.class;
-                                method = ref.getClass().getMethod(fnName, paramTypes);
-                                if (paramCount == 2) {
-                                    ref = (Query) method.invoke(ref, b, queryDescriptor.getString(2));
-                                } else {
-                                    ref = (Query) method.invoke(ref, b);
-                                }
-                                break;
-                            case Number:
-                                double d = queryDescriptor.getDouble(1);
-                                paramTypes[0] = double.class;
-                                method = ref.getClass().getMethod(fnName, paramTypes);
-                                if (paramCount == 2) {
-                                    ref = (Query) method.invoke(ref, d, queryDescriptor.getString(2));
-                                } else {
-                                    ref = (Query) method.invoke(ref, d);
-                                }
-                                break;
-                            case String:
-                                String s = queryDescriptor.getString(1);
-                                paramTypes[0] = String.class;
-                                method = ref.getClass().getMethod(fnName, paramTypes);
-                                if (paramCount == 2) {
-                                    ref = (Query) method.invoke(ref, s, queryDescriptor.getString(2));
-                                } else {
-                                    ref = (Query) method.invoke(ref, s);
-                                }
-                                break;
-                            default:
-                                throw new InvalidQueryParametersException(
-                                        "Unexpected type passed as first parameter to " + fnName + ". Should be Boolean, Number or String." );
-                        }
-                    } catch (Exception e) {
-                        throw new InvalidQueryParametersException(e.getMessage());
-                    }
-                    break;
-                case "limitToFirst":
-                    ref = ref.limitToFirst(queryDescriptor.getInt(1));
-                    break;
-                case "limitToLast":
-                    ref = ref.limitToLast(queryDescriptor.getInt(1));
-                    break;
-                default:
-                    throw new InvalidQueryException("Unknown query function " + fnName);
+        return queryPlans.get(query).apply(getRefFromUrl(appName, databaseUrl));
+    }
+
+    @ReactMethod
+    public void getQueryPlanCacheStats(Promise promise) {
+        WritableMap stats = Arguments.createMap();
+        stats.putInt("size", queryPlans.size());
+        stats.putDouble("hits", queryPlans.getHits());
+        stats.putDouble("misses", queryPlans.getMisses());
+        stats.putDouble("hitRate", queryPlans.getHitRate());
+        promise.resolve(stats);
+    }
+
+    private static final Set<String> CHILD_EVENT_TYPES = new HashSet<>(Arrays.asList(
+            "child_added", "child_changed", "child_removed", "child_moved"));
+
+    /**
+     * Subscribe to several child events with one native listener. Events are
+     * sent with eventType and previousChildName. With coalesce only the latest
+     * event for each child is kept, whatever its type.
+     *
+     * @param eventTypes any of child_added, child_changed, child_removed and
+     *                   child_moved
+     */
+    @ReactMethod
+    public void onChildren(String appName, String databaseUrl, ReadableArray eventTypes, ReadableArray query,
+            @Nullable ReadableMap options, Promise promise) {
+        // Sorted so the same set of types always shares a subscription key
+        TreeSet<String> types = new TreeSet<>();
+        for (int i = 0; i < eventTypes.size(); i++) {
+            String type = eventTypes.getString(i);
+            if (!CHILD_EVENT_TYPES.contains(type)) {
+                promise.reject("unknown_event", "Unknown child event type " + type);
+                return;
+            }
+            types.add(type);
+        }
+        if (types.isEmpty()) {
+            promise.reject("unknown_event", "At least one child event type is required");
+            return;
+        }
+        StringBuilder eventType = new StringBuilder();
+        for (String type : types) {
+            if (eventType.length() > 0) {
+                eventType.append(',');
             }
+            eventType.append(type);
         }
-        return ref;
+        on(appName, databaseUrl, eventType.toString(), query, options, promise);
+    }
+
+    /**
+     * @param eventType a child event type or a comma separated list of them
+     * @return the types or null if any are unknown
+     */
+    @Nullable
+    private static Set<String> parseChildEventTypes(String eventType) {
+        Set<String> types = new HashSet<>(Arrays.asList(eventType.split(",")));
+        return CHILD_EVENT_TYPES.containsAll(types) ? types : null;
     }
 
     @ReactMethod
-    public void on(String appName, String databaseUrl, final String eventType, ReadableArray query, Promise promise) {
+    public void on(final String appName, String databaseUrl, final String eventType, ReadableArray query, @Nullable ReadableMap options, final Promise promise) {
+        final FirebaseBridgeSubscriptionOptions subscriptionOptions = FirebaseBridgeSubscriptionOptions.fromMap(options);
         // This is the event name that will be fired on the JS side whenever
-        // the Firebase event occurs. An event listener is registered here
-        // which then fires the event on the JS bridge.
-        final UUID uniqueEventName = UUID.randomUUID();
-        Query ref;
+        // the Firebase event occurs. Identical subscriptions share a single
+        // native listener which fires the event for all their subscribers.
+        final String subscriberId = UUID.randomUUID().toString();
+        FirebaseBridgeQueryPlan plan;
         try {
-            ref = this.queryRef(appName, databaseUrl, query);
+            plan = queryPlans.get(query);
         } catch (InvalidQueryException e) {
             promise.reject("invalid_query", e.getMessage());
             return;
@@ -589,76 +1025,349 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
             promise.reject("invalid_query_parameters", e.getMessage());
             return;
         }
+        Query ref = plan.apply(getRefFromUrl(appName, databaseUrl));
+        String key;
         switch (eventType) {
             case "value":
-                ValueEventListener listener = new ValueEventListener() {
-                    @Override
-                    public void onDataChange(DataSnapshot dataSnapshot) {
-                        sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
-                    }
+            case "value_delta":
+                key = subscriptionKey(appName, ref, eventType, plan, subscriptionOptions);
+                break;
+            default:
+                Set<String> childEventTypes = parseChildEventTypes(eventType);
+                if (childEventTypes == null) {
+                    promise.reject("unknown_event", "Unknown event type " + eventType);
+                    return;
+                }
+                if (childEventTypes.contains("child_added")) {
+                    // The SDK sends child_added for every existing child when a listener
+                    // is attached. We can't replay that for subscribers joining a shared
+                    // listener so these always get their own.
+                    key = subscriberId;
+                } else {
+                    key = subscriptionKey(appName, ref, eventType, plan, subscriptionOptions);
+                }
+        }
+        final String subscriptionKey = key;
+        final Query subscriptionRef = ref;
+        // A query's value is only part of the location so can't answer reads of it
+        final boolean mirror = subscriptionOptions.mirror && query.size() == 0
+                && (eventType.equals("value") || eventType.equals("value_delta"));
+        listeners.subscribe(key, subscriberId, new FirebaseBridgeListenerRegistry.Subscriber() {
+            @Override
+            public FirebaseBridgeDatabaseSubscription create() {
+                return new FirebaseBridgeDatabaseSubscription(subscriptionKey, subscriptionRef,
+                        eventType, subscriptionOptions, conversionExecutor.newSerialExecutor());
+            }
 
-                    @Override
-                    public void onCancelled(DatabaseError databaseError) {
-                        sendSnapshotEvent(uniqueEventName.toString(), databaseError);
+            @Override
+            public void joined(FirebaseBridgeDatabaseSubscription subscription) {
+                promise.resolve(subscriberId);
+                join(subscription, subscriberId);
+            }
+
+            @Override
+            public void registered(FirebaseBridgeDatabaseSubscription subscription) {
+                if (subscriptionOptions.isThrottled()) {
+                    subscription.throttle = new FirebaseBridgeSubscriptionThrottle(subscriptionOptions,
+                            subscription.executor, scheduler, subscription.stats, totalStats);
+                }
+                if (mirror) {
+                    subscription.mirror = mirrors.create(appName, subscriptionRef.getRef().toString());
+                }
+                attachListener(subscription);
+                if (paused) {
+                    pause(subscription);
+                }
+                promise.resolve(subscriberId);
+            }
+        });
+    }
+
+    /**
+     * Add a subscriber to an existing subscription. Runs on the subscription's
+     * executor so the subscriber is sent the last value exactly once and before
+     * any events that arrive after it.
+     */
+    private void join(final FirebaseBridgeDatabaseSubscription existing, final String subscriberId) {
+        existing.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (existing) {
+                    DataSnapshot lastSnapshot = existing.addPendingSubscriber(subscriberId);
+                    if (lastSnapshot == null) {
+                        return;
                     }
-                };
-                listenersByUUID.put(uniqueEventName.toString(), new DatabaseReferenceListenerPair(ref, listener));
-                ref.addValueEventListener(listener);
-                promise.resolve(uniqueEventName.toString());
-                break;
-            case "child_added":
-            case "child_removed":
-            case "child_changed":
-            case "child_moved":
-                ChildEventListener childListener = new ChildEventListener() {
-                    @Override
-                    public void onChildAdded(DataSnapshot dataSnapshot, String s) {
-                        if (eventType.equals("child_added")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
-                        }
+                    if (existing.eventType.equals("value_delta")) {
+                        sendDeltaEvent(new String[] { subscriberId }, null, lastSnapshot, existing.stats);
+                    } else {
+                        sendSnapshotEvent(subscriberId, lastSnapshot, existing.options, existing.stats);
                     }
+                }
+            }
+        });
+    }
 
-                    @Override
-                    public void onChildChanged(DataSnapshot dataSnapshot, String s) {
-                        if (eventType.equals("child_changed")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
+    private void attachListener(final FirebaseBridgeDatabaseSubscription subscription) {
+        final String eventType = subscription.eventType;
+        if (eventType.equals("value")) {
+            ValueEventListener listener = new ValueEventListener() {
+                @Override
+                public void onDataChange(final DataSnapshot dataSnapshot) {
+                    updateMirror(subscription, dataSnapshot);
+                    dispatch(subscription, null, new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (subscription) {
+                                subscription.setLastSnapshot(dataSnapshot);
+                                sendSnapshotEvent(subscription.getSubscriberIds(), dataSnapshot, subscription.options, subscription.stats);
+                            }
                         }
-                    }
+                    });
+                }
 
-                    @Override
-                    public void onChildRemoved(DataSnapshot dataSnapshot) {
-                        if (eventType.equals("child_removed")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
+                @Override
+                public void onCancelled(DatabaseError databaseError) {
+                    deliverError(subscription, databaseError);
+                }
+            };
+            subscription.ref.addValueEventListener(listener);
+            subscription.setListener(new DatabaseReferenceListenerPair(subscription.ref, listener));
+            return;
+        }
+        if (eventType.equals("value_delta")) {
+            ValueEventListener listener = new ValueEventListener() {
+                @Override
+                public void onDataChange(final DataSnapshot dataSnapshot) {
+                    updateMirror(subscription, dataSnapshot);
+                    dispatch(subscription, null, new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (subscription) {
+                                DataSnapshot previous = subscription.getLastSnapshot();
+                                subscription.setLastSnapshot(dataSnapshot);
+                                sendDeltaEvent(subscription.getSubscriberIds(), previous, dataSnapshot, subscription.stats);
+                            }
                         }
-                    }
+                    });
+                }
 
-                    @Override
-                    public void onChildMoved(DataSnapshot dataSnapshot, String s) {
-                        if (eventType.equals("child_moved")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
-                        }
-                    }
+                @Override
+                public void onCancelled(DatabaseError databaseError) {
+                    deliverError(subscription, databaseError);
+                }
+            };
+            subscription.ref.addValueEventListener(listener);
+            subscription.setListener(new DatabaseReferenceListenerPair(subscription.ref, listener));
+            return;
+        }
+        // One listener for all the child events the subscription is for
+        final Set<String> childEventTypes = parseChildEventTypes(eventType);
+        ChildEventListener childListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(DataSnapshot dataSnapshot, String previousChildName) {
+                if (childEventTypes.contains("child_added")) {
+                    deliver(subscription, dataSnapshot, "child_added", previousChildName);
+                }
+            }
 
-                    @Override
-                    public void onCancelled(DatabaseError databaseError) {
-                        sendSnapshotEvent(uniqueEventName.toString(), databaseError);
-                    }
-                };
-                listenersByUUID.put(uniqueEventName.toString(), new DatabaseReferenceListenerPair(ref, childListener));
-                ref.addChildEventListener(childListener);
-                promise.resolve(uniqueEventName.toString());
-                break;
-            default:
-                promise.reject("unknown_event", "Unknown event type " + eventType);
+            @Override
+            public void onChildChanged(DataSnapshot dataSnapshot, String previousChildName) {
+                if (childEventTypes.contains("child_changed")) {
+                    deliver(subscription, dataSnapshot, "child_changed", previousChildName);
+                }
+            }
+
+            @Override
+            public void onChildRemoved(DataSnapshot dataSnapshot) {
+                if (childEventTypes.contains("child_removed")) {
+                    deliver(subscription, dataSnapshot, "child_removed", null);
+                }
+            }
+
+            @Override
+            public void onChildMoved(DataSnapshot dataSnapshot, String previousChildName) {
+                if (childEventTypes.contains("child_moved")) {
+                    deliver(subscription, dataSnapshot, "child_moved", previousChildName);
+                }
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                deliverError(subscription, databaseError);
+            }
+        };
+        subscription.ref.addChildEventListener(childListener);
+        subscription.setListener(new DatabaseReferenceListenerPair(subscription.ref, childListener));
+    }
+
+    /**
+     * Keep the latest value for readMirrored. Goes straight to the executor,
+     * not through the throttle or background hold, so reads stay current.
+     */
+    private void updateMirror(final FirebaseBridgeDatabaseSubscription subscription, final DataSnapshot dataSnapshot) {
+        if (subscription.mirror == null) {
+            return;
+        }
+        subscription.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Walks the whole value so done here rather than on the listener's thread
+                subscription.mirror.update(dataSnapshot, FirebaseBridgeSnapshotConverter.estimateValueSize(dataSnapshot, Long.MAX_VALUE));
+            }
+        });
+    }
+
+    /**
+     * Run task on the subscription's executor, going through its throttle if
+     * it has one. Held instead while the app is paused if the subscription
+     * coalesces in the background.
+     * @param key child key for child events, null for value events
+     */
+    private void dispatch(FirebaseBridgeDatabaseSubscription subscription, @Nullable String key, Runnable task) {
+        if (subscription.options.background == FirebaseBridgeSubscriptionOptions.Background.COALESCE
+                && subscription.hold(key, task, totalStats)) {
+            return;
+        }
+        if (subscription.throttle != null) {
+            subscription.throttle.offer(key, task);
+        } else {
+            subscription.executor.execute(task);
+        }
+    }
+
+    // Held events have already been coalesced so skip the throttle's coalescing
+    // and queue bound but not its rate limit
+    private void dispatchNow(FirebaseBridgeDatabaseSubscription subscription, Runnable task) {
+        if (subscription.throttle != null) {
+            subscription.throttle.offerCoalesced(task);
+        } else {
+            subscription.executor.execute(task);
         }
     }
 
+    private void deliver(final FirebaseBridgeDatabaseSubscription subscription, final DataSnapshot dataSnapshot,
+            final String eventType, @Nullable final String previousChildName) {
+        dispatch(subscription, dataSnapshot.getKey(), new Runnable() {
+            @Override
+            public void run() {
+                synchronized (subscription) {
+                    sendChildEvent(subscription.getSubscriberIds(), dataSnapshot, subscription.options,
+                            subscription.stats, eventType, previousChildName);
+                }
+            }
+        });
+    }
+
+    private void deliverError(final FirebaseBridgeDatabaseSubscription subscription, final DatabaseError databaseError) {
+        subscription.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (subscription) {
+                    sendSnapshotEvent(subscription.getSubscriberIds(), databaseError, subscription.stats);
+                }
+            }
+        });
+    }
+
+    /**
+     * Send an error to subscribers already removed from subscription, after
+     * any events still queued for them
+     */
+    private void deliverError(final FirebaseBridgeDatabaseSubscription subscription, final String[] subscriberIds, final String message) {
+        subscription.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                sendErrorEvent(subscriberIds, message, subscription.stats);
+            }
+        });
+    }
+
+    /**
+     * Read the value at a location once, resolving with the snapshot's
+     * description and value (or valueJson for encoding 'json'). Unlike once()
+     * nothing is cached and no event is sent.
+     *
+     * options takes the same fields, maxDepth and encoding as snapshotValue
+     * plus exportFormat to include priorities as exportVal() does.
+     */
+    @ReactMethod
+    public void getValue(String appName, String databaseUrl, ReadableArray query, @Nullable final ReadableMap options, final Promise promise) {
+        final Query ref;
+        try {
+            ref = this.queryRef(appName, databaseUrl, query);
+        } catch (InvalidQueryException e) {
+            promise.reject("invalid_query", e.getMessage());
+            return;
+        } catch (InvalidQueryParametersException e) {
+            promise.reject("invalid_query_parameters", e.getMessage());
+            return;
+        }
+        ref.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(final DataSnapshot dataSnapshot) {
+                resolveValue(dataSnapshot, options, promise);
+            }
+
+            @Override
+            public void onCancelled(DatabaseError databaseError) {
+                promise.reject(databaseError.toException());
+            }
+        });
+    }
+
+    /**
+     * Read from the value kept by an on() listener with the mirror option at
+     * databaseUrl or above it. Resolves as getValue does, or with null if no
+     * mirror has the value, without going to the SDK.
+     *
+     * @param path optional path below databaseUrl
+     */
+    @ReactMethod
+    public void readMirrored(String appName, String databaseUrl, @Nullable String path,
+            @Nullable final ReadableMap options, final Promise promise) {
+        DatabaseReference ref = getRefFromUrl(appName, databaseUrl);
+        if (path != null && !path.isEmpty()) {
+            ref = ref.child(path);
+        }
+        DataSnapshot snapshot = mirrors.read(appName, ref.toString());
+        if (snapshot == null) {
+            promise.resolve(null);
+            return;
+        }
+        resolveValue(snapshot, options, promise);
+    }
+
+    /**
+     * Resolve promise with the snapshot's description and value, converted on
+     * a conversion thread. See getValue for options.
+     */
+    private void resolveValue(final DataSnapshot dataSnapshot, @Nullable ReadableMap options, final Promise promise) {
+        final FirebaseBridgeSnapshotProjection projection = FirebaseBridgeSnapshotProjection.fromMap(options);
+        final boolean jsonEncoding = FirebaseBridgeSnapshotJsonWriter.isRequested(options);
+        final boolean exportFormat = options != null && options.hasKey("exportFormat")
+                && !options.isNull("exportFormat") && options.getBoolean("exportFormat");
+        conversionExecutor.newSerialExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                WritableMap data = FirebaseBridgeSnapshotConverter.describe(dataSnapshot);
+                if (jsonEncoding) {
+                    data.putString("valueJson", FirebaseBridgeSnapshotJsonWriter.write(dataSnapshot, exportFormat, projection));
+                } else {
+                    FirebaseBridgeSnapshotConverter.putValue(data, "value", dataSnapshot, exportFormat, projection);
+                }
+                promise.resolve(data);
+            }
+        });
+    }
+
     @ReactMethod
-    public void once(String appName, String databaseUrl, final String eventType, ReadableArray query, Promise promise) {
+    public void once(String appName, String databaseUrl, final String eventType, ReadableArray query, @Nullable ReadableMap options, Promise promise) {
+        final FirebaseBridgeSubscriptionOptions subscriptionOptions = FirebaseBridgeSubscriptionOptions.fromMap(options);
         // This is the event name that will be fired on the JS side whenever
         // the Firebase event occurs. An event listener is registered here
         // which then fires the event on the JS bridge.
         final UUID uniqueEventName = UUID.randomUUID();
+        final Executor executor = conversionExecutor.newSerialExecutor();
         final Query ref;
         try {
             ref = this.queryRef(appName, databaseUrl, query);
@@ -674,12 +1383,12 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
                 ValueEventListener listener = new ValueEventListener() {
                     @Override
                     public void onDataChange(DataSnapshot dataSnapshot) {
-                        sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
+                        sendSnapshotEventOn(executor, uniqueEventName.toString(), dataSnapshot, subscriptionOptions);
                     }
 
                     @Override
                     public void onCancelled(DatabaseError databaseError) {
-                        sendSnapshotEvent(uniqueEventName.toString(), databaseError);
+                        sendSnapshotEventOn(executor, uniqueEventName.toString(), databaseError);
                     }
                 };
                 new DatabaseReferenceListenerPair(ref, listener);
@@ -696,7 +1405,7 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
                     @Override
                     public void onChildAdded(DataSnapshot dataSnapshot, String s) {
                         if (eventType.equals("child_added")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
+                            sendSnapshotEventOn(executor, uniqueEventName.toString(), dataSnapshot, subscriptionOptions);
                             ref.removeEventListener(this);
                         }
                     }
@@ -704,7 +1413,7 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
                     @Override
                     public void onChildChanged(DataSnapshot dataSnapshot, String s) {
                         if (eventType.equals("child_changed")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
+                            sendSnapshotEventOn(executor, uniqueEventName.toString(), dataSnapshot, subscriptionOptions);
                             ref.removeEventListener(this);
                         }
                     }
@@ -712,7 +1421,7 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
                     @Override
                     public void onChildRemoved(DataSnapshot dataSnapshot) {
                         if (eventType.equals("child_removed")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
+                            sendSnapshotEventOn(executor, uniqueEventName.toString(), dataSnapshot, subscriptionOptions);
                             ref.removeEventListener(this);
                         }
                     }
@@ -720,14 +1429,14 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
                     @Override
                     public void onChildMoved(DataSnapshot dataSnapshot, String s) {
                         if (eventType.equals("child_moved")) {
-                            sendSnapshotEvent(uniqueEventName.toString(), dataSnapshot);
+                            sendSnapshotEventOn(executor, uniqueEventName.toString(), dataSnapshot, subscriptionOptions);
                             ref.removeEventListener(this);
                         }
                     }
 
                     @Override
                     public void onCancelled(DatabaseError databaseError) {
-                        sendSnapshotEvent(uniqueEventName.toString(), databaseError);
+                        sendSnapshotEventOn(executor, uniqueEventName.toString(), databaseError);
                         ref.removeEventListener(this);
                     }
                 };
@@ -742,29 +1451,29 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void off(String uniqueEventName) {
-        // uniqueEventName here matches one create in on()
-        if (listenersByUUID.containsKey(uniqueEventName)) {
-            listenersByUUID.get(uniqueEventName).unsubscribe();
-            listenersByUUID.remove(uniqueEventName);
+        // uniqueEventName here matches one create in on(). The native listener is
+        // only removed once its last subscriber is gone.
+        FirebaseBridgeDatabaseSubscription subscription = listeners.remove(uniqueEventName);
+        if (subscription != null) {
+            subscription.detach();
         }
     }
 
-    private Set<String> persistenceEnabled = new HashSet<>();
+    private final Set<String> persistenceEnabled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     @ReactMethod
     public void setPersistenceEnabled(String appName, boolean enabled) {
-        if (!persistenceEnabled.contains(appName)) {
+        // add() is atomic so only the first call for an app gets through
+        if (persistenceEnabled.add(appName)) {
             FirebaseApp app = FirebaseApp.getInstance(appName);
-            persistenceEnabled.add(appName);
             FirebaseDatabase.getInstance(app).setPersistenceEnabled(enabled);
         }
     }
 
     @ReactMethod
     public void snapshotKey(String snapshotUUID, Promise promise) {
-        DataSnapshot snapshot = snapshotCache.get(snapshotUUID);
+        DataSnapshot snapshot = getCachedSnapshot(snapshotUUID, promise);
         if (null == snapshot) {
-            promise.reject("snapshot_not_found", "Snapshot not found; it may have been released.");
             return;
         }
         promise.resolve(snapshot.getKey());
@@ -772,7 +1481,7 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void refFromURL(String appName, String url, Promise promise) {
-        promise.resolve(convertRef(getRefFromUrl(appName, url)));
+        promise.resolve(convertRef(appName, getRefFromUrl(appName, url)));
     }
 
     @ReactMethod
@@ -785,18 +1494,18 @@ public class FirebaseBridgeDatabase extends ReactContextBaseJavaModule {
         } else {
             ref = db.getReference(path);
         }
-        promise.resolve(convertRef(ref));
+        promise.resolve(convertRef(appName, ref));
     }
 
     @ReactMethod
     public void parent(String appName, String url, Promise promise) {
         DatabaseReference ref = getRefFromUrl(appName, url);
-        promise.resolve(convertRef(ref.getParent()));
+        promise.resolve(convertRef(appName, ref.getParent()));
     }
 
     @ReactMethod
     public void root(String appName, String url, Promise promise) {
-        promise.resolve(convertRef(getRefFromUrl(appName, url).getRoot()));
+        promise.resolve(convertRef(appName, getRefFromUrl(appName, url).getRoot()));
     }
 
     @ReactMethod
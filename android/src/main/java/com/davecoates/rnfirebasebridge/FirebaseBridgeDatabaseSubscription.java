@@ -0,0 +1,242 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * A single native Firebase listener shared by every on() call with the same
+ * app, location, query, event type and options. Each on() call gets its own
+ * subscriber id; snapshots are converted once and the event is sent with the
+ * ids of all current subscribers.
+ *
+ * Event delivery and adding subscribers both run on the subscription's serial
+ * executor, and synchronize on the subscription, so a new subscriber never sees
+ * events out of order. Until then a joining subscriber is pending (see
+ * reserveSubscriber) so the subscription isn't closed underneath it.
+ */
+class FirebaseBridgeDatabaseSubscription {
+
+    final String key;
+    final Query ref;
+    final String eventType;
+    final FirebaseBridgeSubscriptionOptions options;
+    // Conversion and emission of events for this subscription runs here
+    final Executor executor;
+    final FirebaseBridgeListenerStats stats = new FirebaseBridgeListenerStats();
+    // Set before the subscription is registered if options ask for throttling;
+    // events then go through this rather than straight to executor
+    FirebaseBridgeSubscriptionThrottle throttle;
+    // Set before the subscription is registered if options ask for a mirror
+    FirebaseBridgeMirrorCache.Mirror mirror;
+
+    private DatabaseReferenceListenerPair listener;
+
+    private final Set<String> subscriberIds = new LinkedHashSet<>();
+    // Joined but not yet added on the executor
+    private final Set<String> pendingSubscriberIds = new HashSet<>();
+    // Set once the last subscriber is removed; a closed subscription can't be
+    // joined and its listener is removed
+    private boolean closed = false;
+    // Listener removed while the app is in the background (background: 'detach')
+    private boolean suspended = false;
+
+    // Events held while the app is in the background (background: 'coalesce'),
+    // keyed by child key. Null when not holding. Separate from the subscription's
+    // own lock which is held while events are converted.
+    final Object holdLock = new Object();
+    private LinkedHashMap<String, Runnable> held;
+
+    // Last snapshot delivered to a value (or value_delta) listener. The SDK only
+    // sends the current value when a listener is attached so we replay this to
+    // anyone joining an existing subscription. For value_delta it is also what
+    // the next snapshot is compared against.
+    private DataSnapshot lastSnapshot;
+
+    FirebaseBridgeDatabaseSubscription(String key, Query ref, String eventType, FirebaseBridgeSubscriptionOptions options, Executor executor) {
+        this.key = key;
+        this.ref = ref;
+        this.eventType = eventType;
+        this.options = options;
+        this.executor = executor;
+    }
+
+    /**
+     * Add a pending subscriber to be added on the executor with
+     * addPendingSubscriber.
+     * @return false if the subscription is closed and can't be joined
+     */
+    synchronized boolean reserveSubscriber(String id) {
+        if (closed) {
+            return false;
+        }
+        pendingSubscriberIds.add(id);
+        return true;
+    }
+
+    /**
+     * Add the first subscriber to a new subscription.
+     */
+    synchronized void addSubscriber(String id) {
+        subscriberIds.add(id);
+    }
+
+    /**
+     * @return the last value snapshot delivered, if any, which should be sent to
+     * the new subscriber while still holding the lock on this subscription. Null
+     * if the pending subscriber was removed before it was added.
+     */
+    synchronized DataSnapshot addPendingSubscriber(String id) {
+        if (!pendingSubscriberIds.remove(id)) {
+            return null;
+        }
+        subscriberIds.add(id);
+        return lastSnapshot;
+    }
+
+    /**
+     * @return true if there are no subscribers (including pending) left and the
+     * native listener should be removed
+     */
+    synchronized boolean removeSubscriber(String id) {
+        subscriberIds.remove(id);
+        pendingSubscriberIds.remove(id);
+        if (!closed && subscriberIds.isEmpty() && pendingSubscriberIds.isEmpty()) {
+            closed = true;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Set once the native listener has been added. If the subscription was
+     * closed in the meantime the listener is removed straight away.
+     */
+    synchronized void setListener(DatabaseReferenceListenerPair listener) {
+        this.listener = listener;
+        if (closed) {
+            listener.unsubscribe();
+        }
+    }
+
+    /**
+     * Remove the native listener until resumeListener is called
+     */
+    synchronized void suspendListener() {
+        if (closed || suspended) {
+            return;
+        }
+        suspended = true;
+        if (listener != null) {
+            listener.unsubscribe();
+            listener = null;
+        }
+        if (mirror != null) {
+            // The value will go stale while detached. Cleared on the executor so
+            // updates already queued there can't put it back.
+            final FirebaseBridgeMirrorCache.Mirror mirror = this.mirror;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mirror.clear();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if the listener was suspended and should be attached again
+     */
+    synchronized boolean resumeListener() {
+        if (!suspended) {
+            return false;
+        }
+        suspended = false;
+        return !closed;
+    }
+
+    void startHolding() {
+        synchronized (holdLock) {
+            if (held == null) {
+                held = new LinkedHashMap<>();
+            }
+        }
+    }
+
+    /**
+     * Hold an event while holding is on, replacing any held event for the same
+     * child.
+     * @param key child key or null for value events
+     * @param totalStats module totals to count a replaced event in, as well as
+     *                   this subscription's stats
+     * @return false if not holding; the event should be sent as usual
+     */
+    boolean hold(@Nullable String key, Runnable task, FirebaseBridgeListenerStats totalStats) {
+        synchronized (holdLock) {
+            if (held == null) {
+                return false;
+            }
+            if (held.put(key == null ? "" : key, task) != null) {
+                stats.recordCoalesced();
+                totalStats.recordCoalesced();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stop holding. The caller should send the returned events while holding
+     * holdLock so no new event can overtake them.
+     */
+    List<Runnable> stopHolding() {
+        synchronized (holdLock) {
+            if (held == null) {
+                return Collections.emptyList();
+            }
+            List<Runnable> tasks = new ArrayList<>(held.values());
+            held = null;
+            return tasks;
+        }
+    }
+
+    /**
+     * Remove the native listener, if it has been added, once closed.
+     */
+    synchronized void detach() {
+        if (listener != null) {
+            listener.unsubscribe();
+        }
+        if (throttle != null) {
+            throttle.cancel();
+        }
+        if (mirror != null) {
+            mirror.close();
+        }
+    }
+
+    synchronized String[] getSubscriberIds() {
+        return subscriberIds.toArray(new String[subscriberIds.size()]);
+    }
+
+    synchronized DataSnapshot getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    synchronized void setLastSnapshot(DataSnapshot snapshot) {
+        lastSnapshot = snapshot;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emits database events to JS. By default each event is sent immediately as
+ * databaseOn. With batching enabled events are buffered and sent as a single
+ * databaseOnBatch array once the window has elapsed since the first buffered
+ * event or the buffer is full, whichever comes first.
+ *
+ * All events go through the one buffer in the order they are emitted so order
+ * is preserved for every listener.
+ */
+class FirebaseBridgeEventBatcher {
+
+    static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+    private final ReactContext reactContext;
+    private final ScheduledExecutorService scheduler;
+
+    // 0 disables batching
+    private long windowMs = 0;
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    private WritableArray buffer;
+    private int bufferSize = 0;
+    private ScheduledFuture<?> pendingFlush;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    FirebaseBridgeEventBatcher(ReactContext reactContext, ScheduledExecutorService scheduler) {
+        this.reactContext = reactContext;
+        this.scheduler = scheduler;
+    }
+
+    synchronized void configure(long windowMs, int maxBatchSize) {
+        flush();
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize > 0 ? maxBatchSize : DEFAULT_MAX_BATCH_SIZE;
+    }
+
+    synchronized void emit(WritableMap params) {
+        if (windowMs <= 0) {
+            send("databaseOn", params);
+            return;
+        }
+        if (buffer == null) {
+            buffer = Arguments.createArray();
+        }
+        buffer.pushMap(params);
+        bufferSize++;
+        if (bufferSize >= maxBatchSize) {
+            flush();
+        } else if (pendingFlush == null) {
+            pendingFlush = scheduler.schedule(flushTask, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void flush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        if (buffer == null) {
+            return;
+        }
+        WritableArray events = buffer;
+        buffer = null;
+        bufferSize = 0;
+        send("databaseOnBatch", events);
+    }
+
+    private void send(String eventName, Object params) {
+        reactContext
+                .getJSModule(RCTNativeAppEventEmitter.class)
+                .emit(eventName, params);
+    }
+
+}
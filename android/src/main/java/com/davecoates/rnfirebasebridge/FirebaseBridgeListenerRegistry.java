@@ -0,0 +1,159 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks shared subscriptions by key and which subscription each subscriber id
+ * belongs to. Safe to use from any thread without external locking.
+ *
+ * A subscription is closed once its last subscriber is removed. Joining a
+ * closed subscription fails and registering a new subscription replaces a
+ * closed one so a subscriber can never be added to a listener that is about
+ * to be (or has been) removed.
+ */
+class FirebaseBridgeListenerRegistry {
+
+    private final ConcurrentHashMap<String, FirebaseBridgeDatabaseSubscription> subscriptionsByKey = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FirebaseBridgeDatabaseSubscription> subscriptionsBySubscriber = new ConcurrentHashMap<>();
+
+    /**
+     * What subscribe() does for a subscriber depending on whether it joins an
+     * existing subscription or a new one is registered
+     */
+    interface Subscriber {
+        /**
+         * Create a subscription for the key. It is discarded if another is
+         * registered for the key first, so this shouldn't acquire anything.
+         */
+        FirebaseBridgeDatabaseSubscription create();
+
+        /**
+         * The subscriber joined subscription and is pending until
+         * addPendingSubscriber is called on the subscription's executor
+         */
+        void joined(FirebaseBridgeDatabaseSubscription subscription);
+
+        /**
+         * subscription, from create(), was registered with the subscriber as
+         * its first subscriber; its native listener should be attached
+         */
+        void registered(FirebaseBridgeDatabaseSubscription subscription);
+    }
+
+    /**
+     * Join the open subscription for key or, if there is none, register a new
+     * one from subscriber.create(). Retries until one or the other succeeds so
+     * concurrent calls for the same key end up sharing one subscription.
+     */
+    void subscribe(String key, String subscriberId, Subscriber subscriber) {
+        while (true) {
+            FirebaseBridgeDatabaseSubscription existing = join(key, subscriberId);
+            if (existing != null) {
+                subscriber.joined(existing);
+                return;
+            }
+            FirebaseBridgeDatabaseSubscription subscription = subscriber.create();
+            // Fails if another thread registered the same key first, in which
+            // case we join that one
+            if (register(subscription, subscriberId)) {
+                subscriber.registered(subscription);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add subscriberId to the subscription registered for key. The subscriber
+     * is pending until addPendingSubscriber is called on the subscription's
+     * executor.
+     *
+     * @return subscription joined or null if there is no open subscription for
+     * key, in which case the caller should register a new one
+     */
+    @Nullable
+    FirebaseBridgeDatabaseSubscription join(String key, String subscriberId) {
+        FirebaseBridgeDatabaseSubscription subscription = subscriptionsByKey.get(key);
+        if (subscription == null || !subscription.reserveSubscriber(subscriberId)) {
+            return null;
+        }
+        subscriptionsBySubscriber.put(subscriberId, subscription);
+        return subscription;
+    }
+
+    /**
+     * Register a new subscription with subscriberId as its first subscriber.
+     *
+     * @return false if another open subscription was registered for the same
+     * key first; the caller should join that instead
+     */
+    boolean register(FirebaseBridgeDatabaseSubscription subscription, String subscriberId) {
+        subscription.addSubscriber(subscriberId);
+        while (true) {
+            FirebaseBridgeDatabaseSubscription existing = subscriptionsByKey.putIfAbsent(subscription.key, subscription);
+            if (existing == null
+                    || (existing.isClosed() && subscriptionsByKey.replace(subscription.key, existing, subscription))) {
+                subscriptionsBySubscriber.put(subscriberId, subscription);
+                return true;
+            }
+            if (!existing.isClosed()) {
+                subscription.removeSubscriber(subscriberId);
+                return false;
+            }
+            // existing was closed but removed or replaced before we could replace it; retry
+        }
+    }
+
+    /**
+     * @return the subscription if subscriberId was its last subscriber and its
+     * native listener should be removed, otherwise null
+     */
+    @Nullable
+    FirebaseBridgeDatabaseSubscription remove(String subscriberId) {
+        FirebaseBridgeDatabaseSubscription subscription = subscriptionsBySubscriber.remove(subscriberId);
+        if (subscription == null || !subscription.removeSubscriber(subscriberId)) {
+            return null;
+        }
+        subscriptionsByKey.remove(subscription.key, subscription);
+        return subscription;
+    }
+
+    /**
+     * Remove every subscriber
+     * @return the subscriber ids removed from each subscription. Those now
+     * closed (ie. not joined by another subscriber in the meantime) should have
+     * their native listeners removed.
+     */
+    Map<FirebaseBridgeDatabaseSubscription, List<String>> removeAll() {
+        Map<FirebaseBridgeDatabaseSubscription, List<String>> removed = new HashMap<>();
+        for (String subscriberId : subscriptionsBySubscriber.keySet()) {
+            FirebaseBridgeDatabaseSubscription subscription = subscriptionsBySubscriber.get(subscriberId);
+            if (subscription == null) {
+                continue;
+            }
+            remove(subscriberId);
+            List<String> ids = removed.get(subscription);
+            if (ids == null) {
+                ids = new ArrayList<>();
+                removed.put(subscription, ids);
+            }
+            ids.add(subscriberId);
+        }
+        return removed;
+    }
+
+    Collection<FirebaseBridgeDatabaseSubscription> subscriptions() {
+        return subscriptionsByKey.values();
+    }
+
+    int subscriberCount() {
+        return subscriptionsBySubscriber.size();
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for events sent by a listener (or, for the module totals, by all
+ * listeners). Updated from conversion threads and read from the module thread
+ * so everything is atomic; a snapshot of the counters taken while events are
+ * being recorded may be slightly inconsistent.
+ */
+class FirebaseBridgeListenerStats {
+
+    // Upper bound (exclusive) in microseconds of each conversion time bucket.
+    // The last bucket holds everything slower.
+    static final long[] BUCKET_BOUNDS_US = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000};
+
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    // Events not sent because of the subscription's throttle options
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong conversionNanos = new AtomicLong();
+    private final AtomicLongArray conversionHistogram = new AtomicLongArray(BUCKET_BOUNDS_US.length + 1);
+    private final AtomicLong payloadBytes = new AtomicLong();
+    private final AtomicLong maxPayloadBytes = new AtomicLong();
+    // Current value rather than a counter so isn't cleared by reset()
+    private final AtomicLong pinnedBytes = new AtomicLong();
+
+    /**
+     * @param nanos time taken to convert and send the event
+     * @param bytes estimated size of what was sent across the bridge
+     */
+    void recordEvent(long nanos, long bytes) {
+        events.incrementAndGet();
+        conversionNanos.addAndGet(nanos);
+        conversionHistogram.incrementAndGet(bucket(nanos / 1000));
+        payloadBytes.addAndGet(bytes);
+        long max;
+        while (bytes > (max = maxPayloadBytes.get()) && !maxPayloadBytes.compareAndSet(max, bytes)) {
+            // retry
+        }
+    }
+
+    void recordError() {
+        errors.incrementAndGet();
+    }
+
+    void recordCoalesced() {
+        coalesced.incrementAndGet();
+    }
+
+    void recordDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void adjustPinnedBytes(long delta) {
+        pinnedBytes.addAndGet(delta);
+    }
+
+    long getEvents() {
+        return events.get();
+    }
+
+    void reset() {
+        events.set(0);
+        errors.set(0);
+        coalesced.set(0);
+        dropped.set(0);
+        conversionNanos.set(0);
+        for (int i = 0; i < conversionHistogram.length(); i++) {
+            conversionHistogram.set(i, 0);
+        }
+        payloadBytes.set(0);
+        maxPayloadBytes.set(0);
+    }
+
+    private static int bucket(long micros) {
+        for (int i = 0; i < BUCKET_BOUNDS_US.length; i++) {
+            if (micros < BUCKET_BOUNDS_US[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_US.length;
+    }
+
+    WritableMap toMap() {
+        WritableMap data = Arguments.createMap();
+        data.putDouble("events", events.get());
+        data.putDouble("errors", errors.get());
+        data.putDouble("coalesced", coalesced.get());
+        data.putDouble("dropped", dropped.get());
+        data.putDouble("conversionTimeMs", conversionNanos.get() / 1e6);
+        WritableArray histogram = Arguments.createArray();
+        for (int i = 0; i < conversionHistogram.length(); i++) {
+            histogram.pushDouble(conversionHistogram.get(i));
+        }
+        data.putArray("conversionTimeHistogram", histogram);
+        data.putDouble("payloadBytes", payloadBytes.get());
+        data.putDouble("maxPayloadBytes", maxPayloadBytes.get());
+        data.putDouble("pinnedBytes", pinnedBytes.get());
+        return data;
+    }
+
+    /**
+     * Bucket bounds in milliseconds to go with conversionTimeHistogram
+     */
+    static WritableArray bucketBoundsMs() {
+        WritableArray bounds = Arguments.createArray();
+        for (long bound : BUCKET_BOUNDS_US) {
+            bounds.pushDouble(bound / 1000.0);
+        }
+        return bounds;
+    }
+
+}
@@ -0,0 +1,229 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.database.DataSnapshot;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latest value of each on() subscription with the mirror option, so reads of
+ * that location (or anything below it) can be answered without attaching
+ * another listener. The snapshot itself is kept; it is immutable and shares
+ * its nodes with the SDK's own cache so this is already the compact form.
+ *
+ * Mirrors are charged an estimated size against a byte budget. A mirror not
+ * read for idleMs, or the least recently read once over budget, is evicted:
+ * its value is dropped and it stops keeping values until it is read again, at
+ * which point the read misses and the next value from its listener is kept.
+ * There are few mirrors so lookups and eviction just go through them all.
+ */
+class FirebaseBridgeMirrorCache {
+
+    static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    static final long DEFAULT_IDLE_MS = 5 * 60 * 1000;
+
+    class Mirror {
+        final String appName;
+        final String locationUrl;
+        // Null until the first value arrives and while evicted
+        private DataSnapshot snapshot;
+        private long bytes;
+        private long lastRead = now();
+        private boolean evicted = false;
+        private boolean closed = false;
+
+        private Mirror(String appName, String locationUrl) {
+            this.appName = appName;
+            this.locationUrl = locationUrl;
+        }
+
+        /**
+         * Keep snapshot as the latest value
+         * @param size estimated bytes held by snapshot
+         */
+        void update(DataSnapshot snapshot, long size) {
+            FirebaseBridgeMirrorCache.this.update(this, snapshot, size);
+        }
+
+        /**
+         * Drop the value until the next update, eg. while the listener is
+         * detached and the value may go stale
+         */
+        void clear() {
+            synchronized (FirebaseBridgeMirrorCache.this) {
+                drop(this);
+            }
+        }
+
+        /**
+         * Remove the mirror once its listener is removed
+         */
+        void close() {
+            synchronized (FirebaseBridgeMirrorCache.this) {
+                drop(this);
+                closed = true;
+                mirrors.remove(this);
+            }
+        }
+    }
+
+    private final List<Mirror> mirrors = new ArrayList<>();
+    private long bytes = 0;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long idleMs = DEFAULT_IDLE_MS;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    synchronized Mirror create(String appName, String locationUrl) {
+        Mirror mirror = new Mirror(appName, locationUrl);
+        mirrors.add(mirror);
+        return mirror;
+    }
+
+    /**
+     * @param locationUrl location to read; the mirrored location or any below it
+     * @return value at locationUrl or null if no mirror has it
+     */
+    @Nullable
+    synchronized DataSnapshot read(String appName, String locationUrl) {
+        long now = now();
+        evictIdle(now);
+        DataSnapshot found = null;
+        for (Mirror mirror : mirrors) {
+            if (!mirror.appName.equals(appName)) {
+                continue;
+            }
+            String path;
+            if (locationUrl.equals(mirror.locationUrl)) {
+                path = null;
+            } else if (locationUrl.startsWith(mirror.locationUrl + "/")) {
+                path = locationUrl.substring(mirror.locationUrl.length() + 1);
+            } else {
+                continue;
+            }
+            if (mirror.evicted) {
+                // Someone wants it after all; keep the next value
+                mirror.evicted = false;
+                mirror.lastRead = now;
+                continue;
+            }
+            if (mirror.snapshot == null || found != null) {
+                continue;
+            }
+            mirror.lastRead = now;
+            found = path == null ? mirror.snapshot : mirror.snapshot.child(decodePath(path));
+        }
+        if (found == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return found;
+    }
+
+    synchronized void setLimits(long maxBytes, long idleMs) {
+        this.maxBytes = maxBytes;
+        this.idleMs = idleMs;
+        evictIdle(now());
+        evictOverBudget();
+    }
+
+    private synchronized void update(Mirror mirror, DataSnapshot snapshot, long size) {
+        if (mirror.closed || mirror.evicted) {
+            return;
+        }
+        drop(mirror);
+        mirror.snapshot = snapshot;
+        mirror.bytes = size;
+        bytes += size;
+        evictIdle(now());
+        evictOverBudget();
+    }
+
+    // Must hold lock
+    private void evictIdle(long now) {
+        for (Mirror mirror : mirrors) {
+            if (!mirror.evicted && now - mirror.lastRead > idleMs) {
+                evict(mirror);
+            }
+        }
+    }
+
+    // Must hold lock. Least recently read first.
+    private void evictOverBudget() {
+        while (bytes > maxBytes) {
+            Mirror oldest = null;
+            for (Mirror mirror : mirrors) {
+                if (mirror.snapshot != null && (oldest == null || mirror.lastRead < oldest.lastRead)) {
+                    oldest = mirror;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            evict(oldest);
+        }
+    }
+
+    // Must hold lock
+    private void evict(Mirror mirror) {
+        if (mirror.snapshot != null) {
+            evictions++;
+        }
+        drop(mirror);
+        mirror.evicted = true;
+    }
+
+    // Must hold lock
+    private void drop(Mirror mirror) {
+        bytes -= mirror.bytes;
+        mirror.bytes = 0;
+        mirror.snapshot = null;
+    }
+
+    private static String decodePath(String path) {
+        try {
+            return URLDecoder.decode(path, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    synchronized int size() {
+        return mirrors.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long getIdleMs() {
+        return idleMs;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+}
@@ -1,9 +1,10 @@
 package com.davecoates.rnfirebasebridge;
 
-import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.facebook.react.ReactPackage;
 import com.facebook.react.bridge.NativeModule;
@@ -11,18 +12,30 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.uimanager.ViewManager;
 import com.facebook.react.bridge.JavaScriptModule;
 
-import com.davecoates.rnfirebasebridge.FirebaseBridgeAuth;
-import com.davecoates.rnfirebasebridge.FirebaseBridgeApp;
-import com.davecoates.rnfirebasebridge.FirebaseBridgeUser;
-import com.davecoates.rnfirebasebridge.FirebaseBridgeFacebookAuthProvider;
-import com.davecoates.rnfirebasebridge.FirebaseBridgeTwitterAuthProvider;
-import com.davecoates.rnfirebasebridge.FirebaseBridgeGoogleAuthProvider;
-import com.davecoates.rnfirebasebridge.FirebaseBridgeGithubAuthProvider;
-import com.davecoates.rnfirebasebridge.FirebaseBridgeDatabase;
-import com.google.firebase.database.FirebaseDatabase;
-
+/**
+ * Builds every module at startup. On React Native 0.39 - 0.46
+ * FirebaseBridgeLazyPackage can be used instead to build each module when it
+ * is first needed.
+ *
+ * The time taken to build each module is recorded by both; see
+ * FirebaseBridgeApp.getModuleConstructionTimes.
+ */
 public class FirebaseBridgePackage implements ReactPackage {
 
+  // Module name to nanoseconds taken to construct it, for modules built so far
+  private static final Map<String, Long> constructionTimes = new ConcurrentHashMap<>();
+
+  static Map<String, Long> getConstructionTimes() {
+    return Collections.unmodifiableMap(constructionTimes);
+  }
+
+  /**
+   * Record module as having taken since start (from System.nanoTime()) to build
+   */
+  static NativeModule constructed(NativeModule module, long start) {
+    constructionTimes.put(module.getName(), System.nanoTime() - start);
+    return module;
+  }
 
   @Override
   public List<Class<? extends JavaScriptModule>> createJSModules() {
@@ -39,14 +52,22 @@ public class FirebaseBridgePackage implements ReactPackage {
                               ReactApplicationContext reactContext) {
     List<NativeModule> modules = new ArrayList<>();
 
-    modules.add(new FirebaseBridgeAuth(reactContext));
-    modules.add(new FirebaseBridgeApp(reactContext));
-    modules.add(new FirebaseBridgeUser(reactContext));
-    modules.add(new FirebaseBridgeFacebookAuthProvider(reactContext));
-    modules.add(new FirebaseBridgeGoogleAuthProvider(reactContext));
-    modules.add(new FirebaseBridgeTwitterAuthProvider(reactContext));
-    modules.add(new FirebaseBridgeGithubAuthProvider(reactContext));
-    modules.add(new FirebaseBridgeDatabase(reactContext));
+    long start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeAuth(reactContext), start));
+    start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeApp(reactContext), start));
+    start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeUser(reactContext), start));
+    start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeFacebookAuthProvider(reactContext), start));
+    start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeGoogleAuthProvider(reactContext), start));
+    start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeTwitterAuthProvider(reactContext), start));
+    start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeGithubAuthProvider(reactContext), start));
+    start = System.nanoTime();
+    modules.add(constructed(new FirebaseBridgeDatabase(reactContext), start));
 
     return modules;
   }
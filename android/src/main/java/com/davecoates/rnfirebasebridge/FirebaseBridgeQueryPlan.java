@@ -0,0 +1,305 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableType;
+import com.google.firebase.database.Query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class InvalidQueryException extends Exception {
+    public InvalidQueryException(String message) {
+        super(message);
+    }
+}
+
+class InvalidQueryParametersException extends Exception {
+    public InvalidQueryParametersException(String message) {
+        super(message);
+    }
+}
+
+/**
+ * A query descriptor array from JS (eg. [['orderByChild', 'age'], ['startAt', 18]])
+ * compiled into a list of steps that can be applied to any reference. Plans are
+ * immutable so the same plan can be shared by any number of on() / once() calls.
+ */
+class FirebaseBridgeQueryPlan {
+
+    private enum Op {
+        ORDER_BY_CHILD,
+        ORDER_BY_KEY,
+        ORDER_BY_PRIORITY,
+        ORDER_BY_VALUE,
+        START_AT,
+        END_AT,
+        EQUAL_TO,
+        LIMIT_TO_FIRST,
+        LIMIT_TO_LAST,
+    }
+
+    private static final class Step {
+        final Op op;
+        // Path for orderByChild or value for startAt / endAt / equalTo. One of
+        // Boolean, Double or String.
+        final Object value;
+        // Optional key for startAt / endAt / equalTo
+        final String key;
+        final int limit;
+
+        Step(Op op, Object value, String key, int limit) {
+            this.op = op;
+            this.value = value;
+            this.key = key;
+            this.limit = limit;
+        }
+    }
+
+    final String canonical;
+    private final Step[] steps;
+
+    private FirebaseBridgeQueryPlan(String canonical, Step[] steps) {
+        this.canonical = canonical;
+        this.steps = steps;
+    }
+
+    Query apply(Query ref) {
+        for (Step step : steps) {
+            switch (step.op) {
+                case ORDER_BY_CHILD:
+                    ref = ref.orderByChild((String)step.value);
+                    break;
+                case ORDER_BY_KEY:
+                    ref = ref.orderByKey();
+                    break;
+                case ORDER_BY_PRIORITY:
+                    ref = ref.orderByPriority();
+                    break;
+                case ORDER_BY_VALUE:
+                    ref = ref.orderByValue();
+                    break;
+                case START_AT:
+                    ref = startAt(ref, step);
+                    break;
+                case END_AT:
+                    ref = endAt(ref, step);
+                    break;
+                case EQUAL_TO:
+                    ref = equalTo(ref, step);
+                    break;
+                case LIMIT_TO_FIRST:
+                    ref = ref.limitToFirst(step.limit);
+                    break;
+                case LIMIT_TO_LAST:
+                    ref = ref.limitToLast(step.limit);
+                    break;
+            }
+        }
+        return ref;
+    }
+
+    private static Query startAt(Query ref, Step step) {
+        if (step.value instanceof Boolean) {
+            boolean b = (Boolean)step.value;
+            return step.key == null ? ref.startAt(b) : ref.startAt(b, step.key);
+        }
+        if (step.value instanceof Double) {
+            double d = (Double)step.value;
+            return step.key == null ? ref.startAt(d) : ref.startAt(d, step.key);
+        }
+        String s = (String)step.value;
+        return step.key == null ? ref.startAt(s) : ref.startAt(s, step.key);
+    }
+
+    private static Query endAt(Query ref, Step step) {
+        if (step.value instanceof Boolean) {
+            boolean b = (Boolean)step.value;
+            return step.key == null ? ref.endAt(b) : ref.endAt(b, step.key);
+        }
+        if (step.value instanceof Double) {
+            double d = (Double)step.value;
+            return step.key == null ? ref.endAt(d) : ref.endAt(d, step.key);
+        }
+        String s = (String)step.value;
+        return step.key == null ? ref.endAt(s) : ref.endAt(s, step.key);
+    }
+
+    private static Query equalTo(Query ref, Step step) {
+        if (step.value instanceof Boolean) {
+            boolean b = (Boolean)step.value;
+            return step.key == null ? ref.equalTo(b) : ref.equalTo(b, step.key);
+        }
+        if (step.value instanceof Double) {
+            double d = (Double)step.value;
+            return step.key == null ? ref.equalTo(d) : ref.equalTo(d, step.key);
+        }
+        String s = (String)step.value;
+        return step.key == null ? ref.equalTo(s) : ref.equalTo(s, step.key);
+    }
+
+    static FirebaseBridgeQueryPlan compile(ReadableArray query) throws InvalidQueryException, InvalidQueryParametersException {
+        return compile(query, canonicalize(query));
+    }
+
+    private static FirebaseBridgeQueryPlan compile(ReadableArray query, String canonical) throws InvalidQueryException, InvalidQueryParametersException {
+        Step[] steps = new Step[query.size()];
+        for (int i = 0; i < query.size(); i++) {
+            ReadableArray queryDescriptor = query.getArray(i);
+            String fnName = queryDescriptor.getString(0);
+            int paramCount = queryDescriptor.size() - 1;
+            switch(fnName) {
+                case "orderByChild":
+                    steps[i] = new Step(Op.ORDER_BY_CHILD, queryDescriptor.getString(1), null, 0);
+                    break;
+                case "orderByKey":
+                    steps[i] = new Step(Op.ORDER_BY_KEY, null, null, 0);
+                    break;
+                case "orderByPriority":
+                    steps[i] = new Step(Op.ORDER_BY_PRIORITY, null, null, 0);
+                    break;
+                case "orderByValue":
+                    steps[i] = new Step(Op.ORDER_BY_VALUE, null, null, 0);
+                    break;
+                case "startAt":
+                case "endAt":
+                case "equalTo":
+                    if (paramCount < 1 || paramCount > 2) {
+                        throw new InvalidQueryParametersException(
+                                fnName + " takes either 1 or two parameters");
+                    }
+                    if (paramCount == 2 && queryDescriptor.getType(2) != ReadableType.String) {
+                        throw new InvalidQueryParametersException(
+                                fnName + " second parameter must be a string"
+                        );
+                    }
+                    Object value;
+                    switch (queryDescriptor.getType(1)) {
+                        case Boolean:
+                            value = queryDescriptor.getBoolean(1);
+                            break;
+                        case Number:
+                            value = queryDescriptor.getDouble(1);
+                            break;
+                        case String:
+                            value = queryDescriptor.getString(1);
+                            break;
+                        default:
+                            throw new InvalidQueryParametersException(
+                                    "Unexpected type passed as first parameter to " + fnName + ". Should be Boolean, Number or String." );
+                    }
+                    Op op = fnName.equals("startAt") ? Op.START_AT : fnName.equals("endAt") ? Op.END_AT : Op.EQUAL_TO;
+                    String key = paramCount == 2 ? queryDescriptor.getString(2) : null;
+                    steps[i] = new Step(op, value, key, 0);
+                    break;
+                case "limitToFirst":
+                    steps[i] = new Step(Op.LIMIT_TO_FIRST, null, null, queryDescriptor.getInt(1));
+                    break;
+                case "limitToLast":
+                    steps[i] = new Step(Op.LIMIT_TO_LAST, null, null, queryDescriptor.getInt(1));
+                    break;
+                default:
+                    throw new InvalidQueryException("Unknown query function " + fnName);
+            }
+        }
+        return new FirebaseBridgeQueryPlan(canonical, steps);
+    }
+
+    /**
+     * Canonical string for a query descriptor array so identical queries can be
+     * identified. Strings are length prefixed so no escaping is needed.
+     */
+    static String canonicalize(ReadableArray query) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < query.size(); i++) {
+            ReadableArray queryDescriptor = query.getArray(i);
+            if (i > 0) {
+                sb.append('|');
+            }
+            sb.append(queryDescriptor.getString(0)).append('(');
+            for (int j = 1; j < queryDescriptor.size(); j++) {
+                if (j > 1) {
+                    sb.append(',');
+                }
+                switch (queryDescriptor.getType(j)) {
+                    case Boolean:
+                        sb.append("b:").append(queryDescriptor.getBoolean(j));
+                        break;
+                    case Number:
+                        sb.append("n:").append(queryDescriptor.getDouble(j));
+                        break;
+                    case String:
+                        String value = queryDescriptor.getString(j);
+                        sb.append('s').append(value.length()).append(':').append(value);
+                        break;
+                    default:
+                        sb.append(queryDescriptor.getType(j).name());
+                        break;
+                }
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * LRU cache of compiled plans keyed by their canonical string.
+     */
+    static class Cache {
+
+        static final int DEFAULT_MAX_SIZE = 200;
+
+        private final LinkedHashMap<String, FirebaseBridgeQueryPlan> plans;
+        private long hits = 0;
+        private long misses = 0;
+
+        Cache() {
+            this(DEFAULT_MAX_SIZE);
+        }
+
+        Cache(final int maxSize) {
+            plans = new LinkedHashMap<String, FirebaseBridgeQueryPlan>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FirebaseBridgeQueryPlan> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        FirebaseBridgeQueryPlan get(ReadableArray query) throws InvalidQueryException, InvalidQueryParametersException {
+            String canonical = canonicalize(query);
+            synchronized (this) {
+                FirebaseBridgeQueryPlan plan = plans.get(canonical);
+                if (plan != null) {
+                    hits++;
+                    return plan;
+                }
+                misses++;
+            }
+            // Compile outside the lock; if two threads race the result is identical
+            FirebaseBridgeQueryPlan plan = compile(query, canonical);
+            synchronized (this) {
+                plans.put(canonical, plan);
+            }
+            return plan;
+        }
+
+        synchronized int size() {
+            return plans.size();
+        }
+
+        synchronized long getHits() {
+            return hits;
+        }
+
+        synchronized long getMisses() {
+            return misses;
+        }
+
+        synchronized double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double)hits / total;
+        }
+
+    }
+
+}
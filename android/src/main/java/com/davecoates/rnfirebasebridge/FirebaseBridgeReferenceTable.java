@@ -0,0 +1,145 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves database references for the URLs JS passes to every database
+ * method. getReferenceFromUrl parses and validates the URL each time so
+ * resolved references are kept in an LRU cache.
+ *
+ * References sent to JS are also given an integer handle so navigation
+ * (see FirebaseBridgeDatabase.resolve) can start from a known reference rather
+ * than a URL. The same location always gets the same handle. Handles only
+ * store the app name and URL so losing the cached reference just means it is
+ * parsed again; the handles themselves are bounded too and a handle that has
+ * been dropped no longer resolves.
+ */
+class FirebaseBridgeReferenceTable {
+
+    static final int DEFAULT_MAX_REFERENCES = 500;
+    static final int DEFAULT_MAX_HANDLES = 10000;
+
+    private static class Location {
+        final String appName;
+        final String url;
+
+        Location(String appName, String url) {
+            this.appName = appName;
+            this.url = url;
+        }
+    }
+
+    private final LinkedHashMap<String, DatabaseReference> references;
+    private final LinkedHashMap<Integer, Location> locationsByHandle;
+    private final Map<String, Integer> handlesByKey = new HashMap<>();
+    private int nextHandle = 1;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    FirebaseBridgeReferenceTable() {
+        this(DEFAULT_MAX_REFERENCES, DEFAULT_MAX_HANDLES);
+    }
+
+    FirebaseBridgeReferenceTable(final int maxReferences, final int maxHandles) {
+        references = new LinkedHashMap<String, DatabaseReference>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DatabaseReference> eldest) {
+                return size() > maxReferences;
+            }
+        };
+        locationsByHandle = new LinkedHashMap<Integer, Location>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Location> eldest) {
+                if (size() > maxHandles) {
+                    Location location = eldest.getValue();
+                    handlesByKey.remove(key(location.appName, location.url));
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    private static String key(String appName, String url) {
+        return appName + "\n" + url;
+    }
+
+    /**
+     * @param url location URL or null for the root of the app's default database
+     */
+    synchronized DatabaseReference get(String appName, @Nullable String url) {
+        String key = key(appName, url);
+        DatabaseReference ref = references.get(key);
+        if (ref != null) {
+            hits++;
+            return ref;
+        }
+        misses++;
+        FirebaseDatabase database = FirebaseDatabase.getInstance(FirebaseApp.getInstance(appName));
+        ref = url == null ? database.getReference() : database.getReferenceFromUrl(url);
+        references.put(key, ref);
+        return ref;
+    }
+
+    /**
+     * @return handle for ref, which is also cached so resolving it is cheap
+     */
+    synchronized int handle(String appName, DatabaseReference ref) {
+        String url = ref.toString();
+        String key = key(appName, url);
+        Integer handle = handlesByKey.get(key);
+        if (handle != null) {
+            // Touch so it's treated as recently used
+            locationsByHandle.get(handle);
+            return handle;
+        }
+        handle = nextHandle++;
+        handlesByKey.put(key, handle);
+        locationsByHandle.put(handle, new Location(appName, url));
+        references.put(key, ref);
+        return handle;
+    }
+
+    /**
+     * @return reference for handle or null if the handle is unknown
+     */
+    @Nullable
+    synchronized DatabaseReference resolve(int handle) {
+        Location location = locationsByHandle.get(handle);
+        if (location == null) {
+            return null;
+        }
+        return get(location.appName, location.url);
+    }
+
+    @Nullable
+    synchronized String getAppName(int handle) {
+        Location location = locationsByHandle.get(handle);
+        return location == null ? null : location.appName;
+    }
+
+    synchronized int size() {
+        return references.size();
+    }
+
+    synchronized int handleCount() {
+        return locationsByHandle.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+}
@@ -0,0 +1,284 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds snapshots handed to JS so further calls (value, child etc) can be made
+ * against them. Previously this was an unbounded map that only shrank when JS
+ * called releaseSnapshot; now it has an entry and (estimated) byte budget and
+ * evicts least recently used snapshots once either is exceeded.
+ *
+ * Each handle is reference counted. A handle is pinned while it has references
+ * and is never evicted; once they have all been released it stays cached but
+ * is the first to go when over budget. Only if every entry is pinned does the
+ * cache go over budget, which is counted in getOverBudget().
+ *
+ * Snapshots are put from the conversion threads while JS calls come in on the
+ * module thread so the cache is split into stripes, chosen by handle, each with
+ * its own lock and LRU order. Totals are kept across stripes and eviction takes
+ * the least recently used unpinned entry of each stripe in turn, so eviction
+ * order is only approximately LRU overall.
+ */
+class FirebaseBridgeSnapshotCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+    static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    // Charged for every handle on top of its value
+    static final int ESTIMATED_BYTES_PER_HANDLE = 256;
+    // Values are only walked this far when estimating so caching a handle
+    // stays cheap; larger values are charged this much
+    static final long MAX_ESTIMATED_VALUE_BYTES = 16 * 1024;
+
+    // Remember this many evicted handles so lookups can tell an evicted snapshot
+    // apart from one that was released or never existed.
+    private static final int MAX_EVICTED_HANDLES = 1000;
+
+    static final int STRIPES = 16;
+
+    private static class Entry {
+        final DataSnapshot snapshot;
+        final long bytes;
+        // Listener the snapshot was sent by, charged for its bytes while pinned
+        @Nullable final FirebaseBridgeListenerStats owner;
+        int refs = 1;
+
+        Entry(DataSnapshot snapshot, long bytes, @Nullable FirebaseBridgeListenerStats owner) {
+            this.snapshot = snapshot;
+            this.bytes = bytes;
+            this.owner = owner;
+        }
+    }
+
+    private static class Stripe {
+        final Map<String, Entry> entries = new HashMap<>();
+
+        // Entries with no references; access ordered so iteration starts at the
+        // least recently used
+        final LinkedHashMap<String, Entry> unpinned = new LinkedHashMap<>(16, 0.75f, true);
+
+        final LinkedHashMap<String, Boolean> evicted = new LinkedHashMap<String, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_EVICTED_HANDLES / STRIPES;
+            }
+        };
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong pinnedBytes = new AtomicLong();
+    // Stripe to evict from next
+    private final AtomicInteger evictionCursor = new AtomicInteger();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Puts that left the cache over budget because every entry was pinned
+    private final AtomicLong overBudgetPuts = new AtomicLong();
+
+    FirebaseBridgeSnapshotCache() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    static long estimateBytes(DataSnapshot snapshot) {
+        long valueBytes = FirebaseBridgeSnapshotConverter.estimateValueSize(snapshot, MAX_ESTIMATED_VALUE_BYTES);
+        return ESTIMATED_BYTES_PER_HANDLE + Math.min(valueBytes, MAX_ESTIMATED_VALUE_BYTES);
+    }
+
+    private Stripe stripe(String id) {
+        return stripes[(id.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    /**
+     * Add a snapshot to the cache with a single reference.
+     * @return handle to pass to JS
+     */
+    String put(DataSnapshot snapshot) {
+        return put(snapshot, null);
+    }
+
+    /**
+     * @param owner stats of the listener the snapshot is for; its pinned bytes
+     *              include the snapshot until it is released
+     */
+    String put(DataSnapshot snapshot, @Nullable FirebaseBridgeListenerStats owner) {
+        String id = UUID.randomUUID().toString();
+        Entry entry = new Entry(snapshot, estimateBytes(snapshot), owner);
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            stripe.entries.put(id, entry);
+            size.incrementAndGet();
+            bytes.addAndGet(entry.bytes);
+            pinned(entry, true);
+        }
+        evictOverBudget();
+        if (overBudget()) {
+            overBudgetPuts.incrementAndGet();
+        }
+        return id;
+    }
+
+    /**
+     * @return snapshot for handle or null if it has been evicted
+     */
+    DataSnapshot get(String id) {
+        Stripe stripe = stripe(id);
+        Entry entry;
+        synchronized (stripe) {
+            entry = stripe.entries.get(id);
+            if (entry != null && entry.refs == 0) {
+                // Touch for LRU order
+                stripe.unpinned.get(id);
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.snapshot;
+    }
+
+    boolean wasEvicted(String id) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            return stripe.evicted.containsKey(id);
+        }
+    }
+
+    /**
+     * Add another reference to handle; each reference needs a matching release().
+     */
+    void retain(String id) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            Entry entry = stripe.entries.get(id);
+            if (entry == null) {
+                return;
+            }
+            if (entry.refs++ == 0) {
+                stripe.unpinned.remove(id);
+                pinned(entry, true);
+            }
+        }
+    }
+
+    /**
+     * Drop a reference. Once there are none the snapshot can be evicted.
+     */
+    void release(String id) {
+        Stripe stripe = stripe(id);
+        synchronized (stripe) {
+            Entry entry = stripe.entries.get(id);
+            if (entry == null || entry.refs == 0) {
+                return;
+            }
+            if (--entry.refs == 0) {
+                stripe.unpinned.put(id, entry);
+                pinned(entry, false);
+            }
+        }
+        evictOverBudget();
+    }
+
+    void setLimits(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evictOverBudget();
+    }
+
+    private boolean overBudget() {
+        return size.get() > maxEntries || bytes.get() > maxBytes;
+    }
+
+    private void evictOverBudget() {
+        // No stripe having an unpinned entry (checked by going round them all
+        // without evicting anything) means the budget can't be met; stop rather
+        // than spin
+        int exhaustedStripes = 0;
+        while (overBudget() && exhaustedStripes < STRIPES) {
+            Stripe stripe = stripes[(evictionCursor.getAndIncrement() & 0x7fffffff) % STRIPES];
+            boolean evicted = false;
+            synchronized (stripe) {
+                Iterator<Map.Entry<String, Entry>> it = stripe.unpinned.entrySet().iterator();
+                if (it.hasNext() && overBudget()) {
+                    Map.Entry<String, Entry> eldest = it.next();
+                    it.remove();
+                    stripe.entries.remove(eldest.getKey());
+                    size.decrementAndGet();
+                    bytes.addAndGet(-eldest.getValue().bytes);
+                    stripe.evicted.put(eldest.getKey(), true);
+                    evicted = true;
+                }
+            }
+            if (!evicted) {
+                exhaustedStripes++;
+                continue;
+            }
+            exhaustedStripes = 0;
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Must hold the lock of entry's stripe
+    private void pinned(Entry entry, boolean pinned) {
+        long delta = pinned ? entry.bytes : -entry.bytes;
+        pinnedBytes.addAndGet(delta);
+        if (entry.owner != null) {
+            entry.owner.adjustPinnedBytes(delta);
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    long getPinnedBytes() {
+        return pinnedBytes.get();
+    }
+
+    int getMaxEntries() {
+        return maxEntries;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    long getOverBudget() {
+        return overBudgetPuts.get();
+    }
+
+}
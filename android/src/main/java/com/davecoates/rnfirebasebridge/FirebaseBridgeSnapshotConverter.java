@@ -0,0 +1,395 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts snapshots into values that can be sent across the bridge.
+ *
+ * Calling getValue() on a snapshot with children builds a full tree of
+ * HashMap / ArrayList which we would then walk again to build the WritableMap.
+ * Instead we walk the snapshot once, only calling getValue() on leaves, and
+ * decide between map and array the same way the SDK does.
+ */
+class FirebaseBridgeSnapshotConverter {
+
+    // Estimated size of a leaf that isn't a string
+    private static final long LEAF_BYTES = 8;
+
+    private FirebaseBridgeSnapshotConverter() {
+    }
+
+    static WritableMap convertRef(DatabaseReference ref) {
+        final WritableMap m = Arguments.createMap();
+        String key = ref.getKey();
+        if (key == null) {
+            m.putString("key", "");
+        } else {
+            m.putString("key", key);
+        }
+        m.putString("locationUrl", ref.toString());
+        return m;
+    }
+
+    /**
+     * Metadata for a snapshot without its value
+     */
+    static WritableMap describe(DataSnapshot snapshot) {
+        WritableMap data = Arguments.createMap();
+        data.putMap("ref", convertRef(snapshot.getRef()));
+        data.putDouble("childrenCount", (double)snapshot.getChildrenCount());
+        data.putBoolean("hasChildren", snapshot.hasChildren());
+        data.putBoolean("exists", snapshot.exists());
+        putPriority(data, "priority", snapshot.getPriority());
+        return data;
+    }
+
+    /**
+     * Resolve promise with value of snapshot. If exportFormat is true priorities
+     * are included as per DataSnapshot.getValue(true).
+     */
+    static void resolveValue(Promise promise, DataSnapshot snapshot, boolean exportFormat) {
+        resolveValue(promise, snapshot, exportFormat, null);
+    }
+
+    /**
+     * As above but only converting the parts of the snapshot included by
+     * projection (if not null).
+     */
+    static void resolveValue(Promise promise, DataSnapshot snapshot, boolean exportFormat, @Nullable FirebaseBridgeSnapshotProjection projection) {
+        if (snapshot.hasChildren()) {
+            if (projection != null && projection.isCutoff(0)) {
+                promise.resolve(convertChildrenCount(snapshot));
+                return;
+            }
+            int arrayLength = exportFormat ? -1 : arrayLength(snapshot);
+            if (arrayLength >= 0 && isFilteredList(projection, 1)) {
+                WritableMap data = Arguments.createMap();
+                convertFilteredList(data, snapshot, arrayLength, projection, 1);
+                promise.resolve(data);
+            } else if (arrayLength >= 0) {
+                WritableArray data = Arguments.createArray();
+                convertList(data, collectChildren(snapshot, projection, 1), arrayLength, projection, 1);
+                promise.resolve(data);
+            } else {
+                WritableMap data = Arguments.createMap();
+                convertMap(data, snapshot, collectChildren(snapshot, projection, 1), exportFormat, projection, 1);
+                promise.resolve(data);
+            }
+            return;
+        }
+        Object value = snapshot.getValue();
+        if (exportFormat && value != null && snapshot.getPriority() != null) {
+            promise.resolve(convertLeafWithPriority(value, snapshot.getPriority()));
+            return;
+        }
+        if (value instanceof Boolean) {
+            promise.resolve(value);
+        } else if (value instanceof Long) {
+            promise.resolve(((Long)value).doubleValue());
+        } else if (value instanceof Double || value instanceof Integer || value instanceof String) {
+            promise.resolve(value);
+        } else {
+            promise.resolve(null);
+        }
+    }
+
+    /**
+     * @return estimated bytes of the value put, counted as estimateValueSize()
+     *         would but as part of the conversion rather than another walk
+     */
+    static long putValue(WritableMap map, String key, DataSnapshot snapshot, boolean exportFormat) {
+        return putValue(map, key, snapshot, exportFormat, null, 0);
+    }
+
+    static long putValue(WritableMap map, String key, DataSnapshot snapshot, boolean exportFormat, @Nullable FirebaseBridgeSnapshotProjection projection) {
+        return putValue(map, key, snapshot, exportFormat, projection, 0);
+    }
+
+    /**
+     * @param depth depth of snapshot relative to where the projection started
+     */
+    private static long putValue(WritableMap map, String key, DataSnapshot snapshot, boolean exportFormat, @Nullable FirebaseBridgeSnapshotProjection projection, int depth) {
+        if (snapshot.hasChildren()) {
+            if (projection != null && projection.isCutoff(depth)) {
+                map.putMap(key, convertChildrenCount(snapshot));
+                return LEAF_BYTES;
+            }
+            int arrayLength = exportFormat ? -1 : arrayLength(snapshot);
+            if (arrayLength >= 0 && isFilteredList(projection, depth + 1)) {
+                WritableMap data = Arguments.createMap();
+                long size = convertFilteredList(data, snapshot, arrayLength, projection, depth + 1);
+                map.putMap(key, data);
+                return size;
+            } else if (arrayLength >= 0) {
+                WritableArray data = Arguments.createArray();
+                long size = convertList(data, collectChildren(snapshot, projection, depth + 1), arrayLength, projection, depth + 1);
+                map.putArray(key, data);
+                return size;
+            }
+            WritableMap data = Arguments.createMap();
+            long size = convertMap(data, snapshot, collectChildren(snapshot, projection, depth + 1), exportFormat, projection, depth + 1);
+            map.putMap(key, data);
+            return size;
+        }
+        Object value = snapshot.getValue();
+        if (exportFormat && value != null && snapshot.getPriority() != null) {
+            map.putMap(key, convertLeafWithPriority(value, snapshot.getPriority()));
+            return leafSize(value) + LEAF_BYTES;
+        }
+        if (value instanceof Boolean) {
+            map.putBoolean(key, (Boolean)value);
+        } else if (value instanceof Long) {
+            map.putDouble(key, ((Long)value).doubleValue());
+        } else if (value instanceof Double) {
+            map.putDouble(key, (Double)value);
+        } else if (value instanceof Integer) {
+            map.putInt(key, (Integer)value);
+        } else if (value instanceof String) {
+            map.putString(key, (String)value);
+        } else {
+            map.putNull(key);
+        }
+        return leafSize(value);
+    }
+
+    private static long pushValue(WritableArray array, DataSnapshot snapshot, @Nullable FirebaseBridgeSnapshotProjection projection, int depth) {
+        if (snapshot.hasChildren()) {
+            if (projection != null && projection.isCutoff(depth)) {
+                array.pushMap(convertChildrenCount(snapshot));
+                return LEAF_BYTES;
+            }
+            int arrayLength = arrayLength(snapshot);
+            if (arrayLength >= 0 && isFilteredList(projection, depth + 1)) {
+                WritableMap data = Arguments.createMap();
+                long size = convertFilteredList(data, snapshot, arrayLength, projection, depth + 1);
+                array.pushMap(data);
+                return size;
+            } else if (arrayLength >= 0) {
+                WritableArray data = Arguments.createArray();
+                long size = convertList(data, collectChildren(snapshot, projection, depth + 1), arrayLength, projection, depth + 1);
+                array.pushArray(data);
+                return size;
+            }
+            WritableMap data = Arguments.createMap();
+            long size = convertMap(data, snapshot, collectChildren(snapshot, projection, depth + 1), false, projection, depth + 1);
+            array.pushMap(data);
+            return size;
+        }
+        Object value = snapshot.getValue();
+        if (value instanceof Boolean) {
+            array.pushBoolean((Boolean)value);
+        } else if (value instanceof Long) {
+            array.pushDouble(((Long)value).doubleValue());
+        } else if (value instanceof Double) {
+            array.pushDouble((Double)value);
+        } else if (value instanceof Integer) {
+            array.pushInt((Integer)value);
+        } else if (value instanceof String) {
+            array.pushString((String)value);
+        } else {
+            array.pushNull();
+        }
+        return leafSize(value);
+    }
+
+    /**
+     * Converts into data, as do convertList and convertFilteredList.
+     * @param depth depth of children
+     * @return estimated bytes, see putValue()
+     */
+    private static long convertMap(WritableMap data, DataSnapshot snapshot, List<DataSnapshot> children, boolean exportFormat, @Nullable FirebaseBridgeSnapshotProjection projection, int depth) {
+        long size = 0;
+        for (DataSnapshot child : children) {
+            String key = child.getKey();
+            size += 2 * key.length() + putValue(data, key, child, exportFormat, projection, depth);
+        }
+        if (exportFormat && snapshot.getPriority() != null) {
+            putPriority(data, ".priority", snapshot.getPriority());
+            size += LEAF_BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * Children may be in query order rather than key order so they are placed by
+     * index. Missing indices are sent as null.
+     * @param length as returned by arrayLength()
+     * @param depth depth of children
+     */
+    private static long convertList(WritableArray data, List<DataSnapshot> children, int length, @Nullable FirebaseBridgeSnapshotProjection projection, int depth) {
+        DataSnapshot[] slots = slots(children, length);
+        long size = 0;
+        for (DataSnapshot child : slots) {
+            if (child == null) {
+                data.pushNull();
+                size += LEAF_BYTES;
+            } else {
+                size += 2 * child.getKey().length() + pushValue(data, child, projection, depth);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A list with fields filtering its indices becomes a map of the included
+     * indices, as JS gets projecting an array by key. Missing indices are
+     * sent as null as they would be in the unprojected list.
+     * @param depth depth of children
+     */
+    private static long convertFilteredList(WritableMap data, DataSnapshot snapshot, int length, FirebaseBridgeSnapshotProjection projection, int depth) {
+        DataSnapshot[] slots = slots(collectChildren(snapshot, null, depth), length);
+        long size = 0;
+        for (int i = 0; i < length; i++) {
+            String key = Integer.toString(i);
+            if (!projection.includes(depth, key)) {
+                continue;
+            }
+            if (slots[i] == null) {
+                data.putNull(key);
+                size += 2 * key.length() + LEAF_BYTES;
+            } else {
+                size += 2 * key.length() + putValue(data, key, slots[i], false, projection, depth);
+            }
+        }
+        return size;
+    }
+
+    static DataSnapshot[] slots(List<DataSnapshot> children, int length) {
+        DataSnapshot[] slots = new DataSnapshot[length];
+        for (DataSnapshot child : children) {
+            slots[parseArrayIndex(child.getKey())] = child;
+        }
+        return slots;
+    }
+
+    private static WritableMap convertLeafWithPriority(Object value, Object priority) {
+        WritableMap data = Arguments.createMap();
+        if (value instanceof Boolean) {
+            data.putBoolean(".value", (Boolean)value);
+        } else if (value instanceof Long) {
+            data.putDouble(".value", ((Long)value).doubleValue());
+        } else if (value instanceof Double) {
+            data.putDouble(".value", (Double)value);
+        } else if (value instanceof String) {
+            data.putString(".value", (String)value);
+        } else {
+            data.putNull(".value");
+        }
+        putPriority(data, ".priority", priority);
+        return data;
+    }
+
+    private static void putPriority(WritableMap data, String key, Object priority) {
+        if (priority instanceof String) {
+            data.putString(key, (String)priority);
+        } else if (priority instanceof Double) {
+            data.putDouble(key, (Double)priority);
+        } else {
+            data.putNull(key);
+        }
+    }
+
+    private static WritableMap convertChildrenCount(DataSnapshot snapshot) {
+        WritableMap data = Arguments.createMap();
+        data.putDouble(FirebaseBridgeSnapshotProjection.CHILDREN_COUNT_KEY, snapshot.getChildrenCount());
+        return data;
+    }
+
+    /**
+     * @param depth depth of the children, used to filter them by projection
+     */
+    static List<DataSnapshot> collectChildren(DataSnapshot snapshot, @Nullable FirebaseBridgeSnapshotProjection projection, int depth) {
+        List<DataSnapshot> children = new ArrayList<>((int)snapshot.getChildrenCount());
+        for (DataSnapshot child : snapshot.getChildren()) {
+            if (projection == null || projection.includes(depth, child.getKey())) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * True if a list at depth's parent is filtered by projection, in which case
+     * it is sent as a map (see convertFilteredList)
+     * @param depth depth of the list's children
+     */
+    static boolean isFilteredList(@Nullable FirebaseBridgeSnapshotProjection projection, int depth) {
+        return projection != null && projection.filters(depth);
+    }
+
+    /**
+     * Same rule the SDK uses in getValue() to decide whether to return a list:
+     * all keys are non-negative integers and the largest is less than twice
+     * the number of children. Decided from all the children, before any
+     * projection, as JS does when projecting an already converted value.
+     * @return length of the list or -1 if children should be a map
+     */
+    static int arrayLength(DataSnapshot snapshot) {
+        int maxIndex = -1;
+        for (DataSnapshot child : snapshot.getChildren()) {
+            int index = parseArrayIndex(child.getKey());
+            if (index < 0) {
+                return -1;
+            }
+            if (index > maxIndex) {
+                maxIndex = index;
+            }
+        }
+        return maxIndex < 2 * snapshot.getChildrenCount() ? maxIndex + 1 : -1;
+    }
+
+    /**
+     * @return key as an integer or -1 if it isn't a non-negative integer
+     */
+    static int parseArrayIndex(String key) {
+        int length = key.length();
+        if (length == 0 || length > 10 || (length > 1 && key.charAt(0) == '0')) {
+            return -1;
+        }
+        long index = 0;
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index > Integer.MAX_VALUE ? -1 : (int)index;
+    }
+
+    /**
+     * Estimate how many bytes the value of snapshot will take to send across the
+     * bridge. Stops walking as soon as limit is exceeded so the cost is bounded
+     * by limit rather than by the size of the tree.
+     */
+    static long estimateValueSize(DataSnapshot snapshot, long limit) {
+        if (!snapshot.hasChildren()) {
+            return leafSize(snapshot.getValue());
+        }
+        long size = 0;
+        for (DataSnapshot child : snapshot.getChildren()) {
+            size += 2 * child.getKey().length() + estimateValueSize(child, limit - size);
+            if (size > limit) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    private static long leafSize(Object value) {
+        if (value instanceof String) {
+            return 2 * ((String)value).length();
+        }
+        return LEAF_BYTES;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.google.firebase.database.DataSnapshot;
+
+/**
+ * Builds a list of patches that turn one snapshot's value into another's. Used
+ * for value_delta listeners so only what changed is sent across the bridge.
+ *
+ * Each patch is either {op: 'set', path, value} for a value that was added or
+ * changed, or {op: 'remove', path}. Paths are relative to the listener's
+ * location with '' being the location itself. Priorities are not compared.
+ */
+class FirebaseBridgeSnapshotDiff {
+
+    private final WritableArray patches = Arguments.createArray();
+    private int size = 0;
+    // Rough size of the patches for stats
+    private long estimatedBytes = 0;
+
+    private FirebaseBridgeSnapshotDiff() {
+    }
+
+    /**
+     * @param previous snapshot last sent or null if there wasn't one, in which
+     *                 case the whole value is sent (even if it doesn't exist)
+     */
+    static FirebaseBridgeSnapshotDiff compute(@Nullable DataSnapshot previous, DataSnapshot next) {
+        FirebaseBridgeSnapshotDiff diff = new FirebaseBridgeSnapshotDiff();
+        if (previous == null) {
+            diff.set("", next);
+        } else {
+            diff.diff(previous, next, "");
+        }
+        return diff;
+    }
+
+    /**
+     * @return patches or null if the values are identical
+     */
+    @Nullable
+    WritableArray getPatches() {
+        return size == 0 ? null : patches;
+    }
+
+    long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    private void diff(@Nullable DataSnapshot previous, DataSnapshot next, String path) {
+        boolean previousExists = previous != null && previous.exists();
+        if (!next.exists()) {
+            if (previousExists) {
+                remove(path);
+            }
+            return;
+        }
+        if (!previousExists) {
+            set(path, next);
+            return;
+        }
+        if (!previous.hasChildren() || !next.hasChildren()) {
+            if (previous.hasChildren() || next.hasChildren()
+                    || !leafEquals(previous.getValue(), next.getValue())) {
+                set(path, next);
+            }
+            return;
+        }
+        for (DataSnapshot child : next.getChildren()) {
+            String key = child.getKey();
+            diff(previous.child(key), child, childPath(path, key));
+        }
+        for (DataSnapshot child : previous.getChildren()) {
+            String key = child.getKey();
+            if (!next.hasChild(key)) {
+                remove(childPath(path, key));
+            }
+        }
+    }
+
+    private void set(String path, DataSnapshot snapshot) {
+        WritableMap patch = Arguments.createMap();
+        patch.putString("op", "set");
+        patch.putString("path", path);
+        long valueBytes = FirebaseBridgeSnapshotConverter.putValue(patch, "value", snapshot, false);
+        patches.pushMap(patch);
+        size++;
+        estimatedBytes += 2 * path.length() + valueBytes;
+    }
+
+    private void remove(String path) {
+        WritableMap patch = Arguments.createMap();
+        patch.putString("op", "remove");
+        patch.putString("path", path);
+        patches.pushMap(patch);
+        size++;
+        estimatedBytes += 2 * path.length();
+    }
+
+    private static String childPath(String path, String key) {
+        return path.isEmpty() ? key : path + "/" + key;
+    }
+
+    private static boolean leafEquals(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number)a).doubleValue() == ((Number)b).doubleValue();
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,214 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.facebook.react.bridge.ReadableMap;
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.List;
+
+/**
+ * Writes the value of a snapshot as a JSON string. Building a WritableMap
+ * makes a JNI call for every entry; for large values it is much cheaper to
+ * send one string and JSON.parse it in JS.
+ *
+ * Produces the same value as FirebaseBridgeSnapshotConverter including the
+ * choice between arrays and objects, export format and projections.
+ */
+class FirebaseBridgeSnapshotJsonWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder sb = new StringBuilder();
+    private final boolean exportFormat;
+    @Nullable private final FirebaseBridgeSnapshotProjection projection;
+
+    private FirebaseBridgeSnapshotJsonWriter(boolean exportFormat, @Nullable FirebaseBridgeSnapshotProjection projection) {
+        this.exportFormat = exportFormat;
+        this.projection = projection;
+    }
+
+    /**
+     * @return true if options (to snapshotValue, on or once) has encoding 'json'
+     */
+    static boolean isRequested(@Nullable ReadableMap options) {
+        return options != null && options.hasKey("encoding") && !options.isNull("encoding")
+                && "json".equals(options.getString("encoding"));
+    }
+
+    static String write(DataSnapshot snapshot, boolean exportFormat, @Nullable FirebaseBridgeSnapshotProjection projection) {
+        FirebaseBridgeSnapshotJsonWriter writer = new FirebaseBridgeSnapshotJsonWriter(exportFormat, projection);
+        writer.writeValue(snapshot, 0);
+        return writer.sb.toString();
+    }
+
+    private void writeValue(DataSnapshot snapshot, int depth) {
+        if (snapshot.hasChildren()) {
+            if (projection != null && projection.isCutoff(depth)) {
+                sb.append('{');
+                writeString(FirebaseBridgeSnapshotProjection.CHILDREN_COUNT_KEY);
+                sb.append(':').append(snapshot.getChildrenCount()).append('}');
+                return;
+            }
+            int arrayLength = exportFormat ? -1 : FirebaseBridgeSnapshotConverter.arrayLength(snapshot);
+            if (arrayLength >= 0 && FirebaseBridgeSnapshotConverter.isFilteredList(projection, depth + 1)) {
+                writeFilteredList(snapshot, arrayLength, depth + 1);
+            } else if (arrayLength >= 0) {
+                writeList(FirebaseBridgeSnapshotConverter.collectChildren(snapshot, projection, depth + 1), arrayLength, depth + 1);
+            } else {
+                writeMap(snapshot, FirebaseBridgeSnapshotConverter.collectChildren(snapshot, projection, depth + 1), depth + 1);
+            }
+            return;
+        }
+        Object value = snapshot.getValue();
+        if (exportFormat && value != null && snapshot.getPriority() != null) {
+            sb.append('{');
+            writeString(".value");
+            sb.append(':');
+            writeLeaf(value);
+            sb.append(',');
+            writeString(".priority");
+            sb.append(':');
+            writePriority(snapshot.getPriority());
+            sb.append('}');
+            return;
+        }
+        writeLeaf(value);
+    }
+
+    private void writeMap(DataSnapshot snapshot, List<DataSnapshot> children, int depth) {
+        sb.append('{');
+        boolean first = true;
+        for (DataSnapshot child : children) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            writeString(child.getKey());
+            sb.append(':');
+            writeValue(child, depth);
+        }
+        if (exportFormat && snapshot.getPriority() != null) {
+            if (!first) {
+                sb.append(',');
+            }
+            writeString(".priority");
+            sb.append(':');
+            writePriority(snapshot.getPriority());
+        }
+        sb.append('}');
+    }
+
+    /**
+     * As FirebaseBridgeSnapshotConverter.convertList children are placed by
+     * index with missing indices written as null.
+     */
+    private void writeList(List<DataSnapshot> children, int length, int depth) {
+        DataSnapshot[] slots = FirebaseBridgeSnapshotConverter.slots(children, length);
+        sb.append('[');
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            if (slots[i] == null) {
+                sb.append("null");
+            } else {
+                writeValue(slots[i], depth);
+            }
+        }
+        sb.append(']');
+    }
+
+    /**
+     * As FirebaseBridgeSnapshotConverter.convertFilteredList a filtered list is
+     * written as a map of the included indices.
+     */
+    private void writeFilteredList(DataSnapshot snapshot, int length, int depth) {
+        DataSnapshot[] slots = FirebaseBridgeSnapshotConverter.slots(
+                FirebaseBridgeSnapshotConverter.collectChildren(snapshot, null, depth), length);
+        sb.append('{');
+        boolean first = true;
+        for (int i = 0; i < length; i++) {
+            String key = Integer.toString(i);
+            if (!projection.includes(depth, key)) {
+                continue;
+            }
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            writeString(key);
+            sb.append(':');
+            if (slots[i] == null) {
+                sb.append("null");
+            } else {
+                writeValue(slots[i], depth);
+            }
+        }
+        sb.append('}');
+    }
+
+    private void writeLeaf(Object value) {
+        if (value instanceof Boolean || value instanceof Long || value instanceof Integer) {
+            sb.append(value);
+        } else if (value instanceof Double) {
+            writeDouble((Double)value);
+        } else if (value instanceof String) {
+            writeString((String)value);
+        } else {
+            sb.append("null");
+        }
+    }
+
+    private void writePriority(Object priority) {
+        if (priority instanceof String) {
+            writeString((String)priority);
+        } else if (priority instanceof Double) {
+            writeDouble((Double)priority);
+        } else {
+            sb.append("null");
+        }
+    }
+
+    private void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Not representable in JSON; the database doesn't store these anyway
+            sb.append("null");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            sb.append((long)value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private void writeString(String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+}
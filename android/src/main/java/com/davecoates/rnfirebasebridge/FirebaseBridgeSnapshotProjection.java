@@ -0,0 +1,99 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Limits which parts of a snapshot are converted by snapshotValue.
+ *
+ * fields is a list of key whitelists, one per level: fields[0] applies to the
+ * snapshot's children, fields[1] to their children and so on. A null entry (or
+ * a level past the end of the list) includes every key.
+ *
+ * Below maxDepth levels a node with children is sent as {".childrenCount": n}
+ * instead of its value. A maxDepth of 1 sends the snapshot's children with
+ * only counts for their children.
+ */
+class FirebaseBridgeSnapshotProjection {
+
+    static final String CHILDREN_COUNT_KEY = ".childrenCount";
+
+    // Indexed by depth - 1; null entries include everything
+    private final List<Set<String>> fields;
+    // -1 for no limit
+    private final int maxDepth;
+
+    private FirebaseBridgeSnapshotProjection(List<Set<String>> fields, int maxDepth) {
+        this.fields = fields;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @return projection or null if options don't restrict the value
+     */
+    @Nullable
+    static FirebaseBridgeSnapshotProjection fromMap(@Nullable ReadableMap options) {
+        if (options == null) {
+            return null;
+        }
+        List<Set<String>> fields = new ArrayList<>();
+        if (options.hasKey("fields") && options.getType("fields") == ReadableType.Array) {
+            ReadableArray levels = options.getArray("fields");
+            for (int i = 0; i < levels.size(); i++) {
+                if (levels.getType(i) != ReadableType.Array) {
+                    fields.add(null);
+                    continue;
+                }
+                ReadableArray keys = levels.getArray(i);
+                Set<String> level = new HashSet<>();
+                for (int j = 0; j < keys.size(); j++) {
+                    level.add(keys.getString(j));
+                }
+                fields.add(level);
+            }
+        }
+        int maxDepth = -1;
+        if (options.hasKey("maxDepth") && options.getType("maxDepth") == ReadableType.Number) {
+            maxDepth = Math.max(0, options.getInt("maxDepth"));
+        }
+        if (fields.isEmpty() && maxDepth < 0) {
+            return null;
+        }
+        return new FirebaseBridgeSnapshotProjection(fields, maxDepth);
+    }
+
+    /**
+     * @param depth depth of the child; the snapshot's own children are at 1
+     */
+    boolean includes(int depth, String key) {
+        if (depth > fields.size()) {
+            return true;
+        }
+        Set<String> level = fields.get(depth - 1);
+        return level == null || level.contains(key);
+    }
+
+    /**
+     * @param depth depth of the children; the snapshot's own children are at 1
+     * @return true if some children at depth may be left out
+     */
+    boolean filters(int depth) {
+        return depth <= fields.size() && fields.get(depth - 1) != null;
+    }
+
+    /**
+     * @param depth depth of a node; the snapshot itself is at 0
+     * @return true if a node at depth with children should be sent as a count
+     */
+    boolean isCutoff(int depth) {
+        return maxDepth >= 0 && depth >= maxDepth;
+    }
+
+}
@@ -0,0 +1,116 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Options passed from JS to on() / once(). Any key not provided falls back to
+ * the default which matches the behaviour before options existed.
+ */
+class FirebaseBridgeSubscriptionOptions {
+
+    static final FirebaseBridgeSubscriptionOptions DEFAULT = new FirebaseBridgeSubscriptionOptions();
+
+    /**
+     * What a listener does while the app is in the background
+     */
+    enum Background {
+        // Carry on sending events
+        KEEP,
+        // Hold events, keeping only the latest for each child, until resumed
+        COALESCE,
+        // Remove the native listener until resumed
+        DETACH
+    }
+
+    // Snapshots whose estimated size is at or below this many bytes have their
+    // value sent in the event itself rather than being cached for a later
+    // snapshotValue() call. 0 disables inlining.
+    final long inlineThreshold;
+
+    // Send inline values as a JSON string (valueJson) rather than a map
+    final boolean jsonEncoding;
+
+    // Send at most this many events a second; 0 for no limit
+    final double maxEventsPerSecond;
+
+    // Replace an event still waiting to be sent with a newer one for the same
+    // child (or, for value events, any newer value)
+    final boolean coalesce;
+
+    // Most events that can be waiting to be sent; 0 for no limit
+    final int maxQueue;
+
+    // When maxQueue is reached drop the oldest waiting event (true) or the new
+    // one (false)
+    final boolean dropOldest;
+
+    final Background background;
+
+    // Keep the latest value in a FirebaseBridgeMirrorCache for readMirrored().
+    // Only used by value and value_delta listeners without a query.
+    final boolean mirror;
+
+    private FirebaseBridgeSubscriptionOptions() {
+        this.inlineThreshold = 0;
+        this.jsonEncoding = false;
+        this.maxEventsPerSecond = 0;
+        this.coalesce = false;
+        this.maxQueue = 0;
+        this.dropOldest = true;
+        this.background = Background.KEEP;
+        this.mirror = false;
+    }
+
+    private FirebaseBridgeSubscriptionOptions(ReadableMap options) {
+        this.inlineThreshold = options.hasKey("inlineThreshold") && !options.isNull("inlineThreshold")
+                ? (long)options.getDouble("inlineThreshold") : 0;
+        this.jsonEncoding = FirebaseBridgeSnapshotJsonWriter.isRequested(options);
+        this.maxEventsPerSecond = options.hasKey("maxEventsPerSecond") && !options.isNull("maxEventsPerSecond")
+                ? Math.max(0, options.getDouble("maxEventsPerSecond")) : 0;
+        this.coalesce = options.hasKey("coalesce") && !options.isNull("coalesce") && options.getBoolean("coalesce");
+        this.maxQueue = options.hasKey("maxQueue") && !options.isNull("maxQueue")
+                ? Math.max(0, options.getInt("maxQueue")) : 0;
+        this.dropOldest = !(options.hasKey("dropPolicy") && !options.isNull("dropPolicy")
+                && "newest".equals(options.getString("dropPolicy")));
+        String background = options.hasKey("background") && !options.isNull("background")
+                ? options.getString("background") : "keep";
+        switch (background) {
+            case "coalesce":
+                this.background = Background.COALESCE;
+                break;
+            case "detach":
+                this.background = Background.DETACH;
+                break;
+            default:
+                this.background = Background.KEEP;
+        }
+        this.mirror = options.hasKey("mirror") && !options.isNull("mirror") && options.getBoolean("mirror");
+    }
+
+    /**
+     * @return true if events need to go through a FirebaseBridgeSubscriptionThrottle
+     */
+    boolean isThrottled() {
+        return maxEventsPerSecond > 0 || coalesce || maxQueue > 0;
+    }
+
+    /**
+     * Options that change what is sent to JS must be part of this so listeners
+     * are only shared between subscriptions that expect the same events.
+     */
+    String canonicalKey() {
+        return "inline=" + inlineThreshold + ",json=" + jsonEncoding
+                + ",rate=" + maxEventsPerSecond + ",coalesce=" + coalesce
+                + ",queue=" + maxQueue + ",dropOldest=" + dropOldest
+                + ",background=" + background + ",mirror=" + mirror;
+    }
+
+    static FirebaseBridgeSubscriptionOptions fromMap(@Nullable ReadableMap options) {
+        if (options == null) {
+            return DEFAULT;
+        }
+        return new FirebaseBridgeSubscriptionOptions(options);
+    }
+
+}
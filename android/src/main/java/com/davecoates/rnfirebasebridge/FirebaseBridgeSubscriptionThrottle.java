@@ -0,0 +1,169 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits between a subscription's Firebase listener and its executor for
+ * subscriptions with maxEventsPerSecond, coalesce or maxQueue options.
+ *
+ * Events wait here and are sent one at a time: the next is only handed to the
+ * executor once the previous has been converted and sent and, with a rate
+ * limit, once enough time has passed. Events arriving in the meantime queue up,
+ * which is where coalescing and the queue bound apply.
+ */
+class FirebaseBridgeSubscriptionThrottle {
+
+    private final FirebaseBridgeSubscriptionOptions options;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final FirebaseBridgeListenerStats stats;
+    @Nullable private final FirebaseBridgeListenerStats totalStats;
+    private final long intervalNanos;
+
+    // Keyed by child key when coalescing, otherwise by a new object per event.
+    // Replacing the value of an existing key keeps its place in the queue.
+    private final LinkedHashMap<Object, Runnable> pending = new LinkedHashMap<>();
+    // An event is being sent or one is scheduled to be
+    private boolean draining = false;
+    private boolean cancelled = false;
+    private long lastSentNanos = 0;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drainOne();
+        }
+    };
+
+    private final Runnable dispatchTask = new Runnable() {
+        @Override
+        public void run() {
+            executor.execute(drainTask);
+        }
+    };
+
+    FirebaseBridgeSubscriptionThrottle(FirebaseBridgeSubscriptionOptions options, Executor executor,
+            ScheduledExecutorService scheduler, FirebaseBridgeListenerStats stats,
+            @Nullable FirebaseBridgeListenerStats totalStats) {
+        this.options = options;
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.stats = stats;
+        this.totalStats = totalStats;
+        this.intervalNanos = options.maxEventsPerSecond > 0 ? (long)(1e9 / options.maxEventsPerSecond) : 0;
+    }
+
+    /**
+     * @param key child key the event is for, or null for value events
+     * @param task converts and sends the event; run on the executor
+     */
+    synchronized void offer(@Nullable String key, Runnable task) {
+        if (cancelled) {
+            return;
+        }
+        Object queueKey = options.coalesce ? (key == null ? "" : key) : new Object();
+        if (options.coalesce && pending.containsKey(queueKey)) {
+            pending.put(queueKey, task);
+            recordCoalesced();
+            return;
+        }
+        if (options.maxQueue > 0 && pending.size() >= options.maxQueue) {
+            recordDropped();
+            if (!options.dropOldest) {
+                return;
+            }
+            Iterator<Object> it = pending.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        pending.put(queueKey, task);
+        if (!draining) {
+            draining = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Queue an event that has already been coalesced (see
+     * FirebaseBridgeDatabaseSubscription.hold); only the rate limit applies.
+     */
+    synchronized void offerCoalesced(Runnable task) {
+        if (cancelled) {
+            return;
+        }
+        pending.put(new Object(), task);
+        if (!draining) {
+            draining = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Drop anything waiting; called once the subscription's listener is removed
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        pending.clear();
+    }
+
+    // Must hold lock
+    private void schedule() {
+        long delay = lastSentNanos + intervalNanos - System.nanoTime();
+        if (intervalNanos > 0 && lastSentNanos != 0 && delay > 0) {
+            scheduler.schedule(dispatchTask, delay, TimeUnit.NANOSECONDS);
+        } else {
+            executor.execute(drainTask);
+        }
+    }
+
+    private void drainOne() {
+        Runnable task;
+        synchronized (this) {
+            Iterator<Map.Entry<Object, Runnable>> it = pending.entrySet().iterator();
+            if (!it.hasNext()) {
+                draining = false;
+                return;
+            }
+            task = it.next().getValue();
+            it.remove();
+            lastSentNanos = System.nanoTime();
+        }
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    draining = false;
+                } else {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    synchronized int getQueueSize() {
+        return pending.size();
+    }
+
+    private void recordCoalesced() {
+        stats.recordCoalesced();
+        if (totalStats != null) {
+            totalStats.recordCoalesced();
+        }
+    }
+
+    private void recordDropped() {
+        stats.recordDropped();
+        if (totalStats != null) {
+            totalStats.recordDropped();
+        }
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.davecoates.rnfirebasebridge;
+
+import android.support.annotation.Nullable;
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single atomic operation run with runTransaction() so the read, modify and
+ * retry all happen natively. The promise resolves with whether the
+ * transaction committed, whether the operation applied, the committed value and
+ * how many times the SDK retried it.
+ *
+ * An operation that wouldn't change the value (max / min already satisfied,
+ * compareAndSet not matching) still commits it unchanged rather than aborting,
+ * so the server checks the value it was decided on and the SDK retries if it
+ * differs. applied says whether the operation changed the value in the attempt
+ * that committed.
+ */
+class FirebaseBridgeTransaction implements Transaction.Handler {
+
+    enum Type {
+        INCREMENT,
+        DECREMENT,
+        MAX,
+        MIN,
+        APPEND,
+        COMPARE_AND_SET,
+    }
+
+    private final Type type;
+    private final Object operand;
+    private final Object expected;
+    private final Promise promise;
+
+    // Only touched from doTransaction and onComplete, which the SDK calls on
+    // its own thread one after another
+    private int attempts = 0;
+    private boolean applied = false;
+    private String errorCode;
+    private String errorMessage;
+
+    /**
+     * @param operand amount for increment / decrement, value for max / min,
+     *                item for append and the new value for compareAndSet
+     * @param expected value compareAndSet requires; unused otherwise
+     */
+    FirebaseBridgeTransaction(Type type, Object operand, @Nullable Object expected, Promise promise) {
+        this.type = type;
+        this.operand = operand;
+        this.expected = expected;
+        this.promise = promise;
+    }
+
+    @Nullable
+    static Type parseType(String type) {
+        switch (type) {
+            case "increment":
+                return Type.INCREMENT;
+            case "decrement":
+                return Type.DECREMENT;
+            case "max":
+                return Type.MAX;
+            case "min":
+                return Type.MIN;
+            case "append":
+                return Type.APPEND;
+            case "compareAndSet":
+                return Type.COMPARE_AND_SET;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Transaction.Result doTransaction(MutableData data) {
+        attempts++;
+        errorCode = null;
+        Object current = data.getValue();
+        switch (type) {
+            case INCREMENT:
+            case DECREMENT:
+            case MAX:
+            case MIN:
+                if (current != null && !(current instanceof Number)) {
+                    return fail("not_a_number", "Value is not a number");
+                }
+                if (!(operand instanceof Number)) {
+                    return fail("invalid_operand", "Operand must be a number");
+                }
+                Number next;
+                if (current == null) {
+                    // Missing counts as 0 for increment / decrement
+                    next = type == Type.MAX || type == Type.MIN ? normalize((Number)operand) : apply(0L, (Number)operand);
+                } else {
+                    next = apply((Number)current, (Number)operand);
+                }
+                applied = current == null || !valuesEqual(current, next);
+                data.setValue(applied ? next : current);
+                return Transaction.success(data);
+            case APPEND:
+                if (current != null && !(current instanceof List)) {
+                    return fail("not_a_list", "Value is not a list");
+                }
+                List<Object> list = current == null ? new ArrayList<>() : new ArrayList<>((List<?>)current);
+                list.add(operand);
+                data.setValue(list);
+                applied = true;
+                return Transaction.success(data);
+            case COMPARE_AND_SET:
+                applied = valuesEqual(current, expected);
+                if (applied) {
+                    data.setValue(operand);
+                }
+                return Transaction.success(data);
+        }
+        return Transaction.abort();
+    }
+
+    private Number apply(Number current, Number operand) {
+        boolean integral = current instanceof Long && isIntegral(operand);
+        switch (type) {
+            case INCREMENT:
+                return integral ? (Number)(current.longValue() + operand.longValue()) : current.doubleValue() + operand.doubleValue();
+            case DECREMENT:
+                return integral ? (Number)(current.longValue() - operand.longValue()) : current.doubleValue() - operand.doubleValue();
+            case MAX:
+                return current.doubleValue() >= operand.doubleValue() ? current : normalize(operand);
+            default:
+                return current.doubleValue() <= operand.doubleValue() ? current : normalize(operand);
+        }
+    }
+
+    private Transaction.Result fail(String code, String message) {
+        errorCode = code;
+        errorMessage = message;
+        return Transaction.abort();
+    }
+
+    @Override
+    public void onComplete(DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
+        if (databaseError != null) {
+            promise.reject(databaseError.toException());
+            return;
+        }
+        if (errorCode != null) {
+            promise.reject(errorCode, errorMessage);
+            return;
+        }
+        WritableMap result = Arguments.createMap();
+        result.putBoolean("committed", committed);
+        result.putBoolean("applied", committed && applied);
+        result.putInt("retries", Math.max(0, attempts - 1));
+        if (dataSnapshot != null) {
+            FirebaseBridgeSnapshotConverter.putValue(result, "value", dataSnapshot, false);
+        } else {
+            result.putNull("value");
+        }
+        promise.resolve(result);
+    }
+
+    private static boolean isIntegral(Number number) {
+        double value = number.doubleValue();
+        return value == Math.rint(value) && Math.abs(value) < Long.MAX_VALUE;
+    }
+
+    // Values from JS are always doubles; store whole numbers as longs as the
+    // SDK does
+    private static Number normalize(Number number) {
+        return isIntegral(number) ? (Number)number.longValue() : number;
+    }
+
+    /**
+     * Compare a value from the database with one from JS. Numbers are compared
+     * by value as JS numbers arrive as doubles and the SDK returns longs.
+     */
+    static boolean valuesEqual(@Nullable Object a, @Nullable Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return ((Number)a).doubleValue() == ((Number)b).doubleValue();
+        }
+        if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> mapA = (Map<?, ?>)a;
+            Map<?, ?> mapB = (Map<?, ?>)b;
+            if (mapA.size() != mapB.size()) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : mapA.entrySet()) {
+                if (!valuesEqual(entry.getValue(), mapB.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof List && b instanceof List) {
+            List<?> listA = (List<?>)a;
+            List<?> listB = (List<?>)b;
+            if (listA.size() != listB.size()) {
+                return false;
+            }
+            for (int i = 0; i < listA.size(); i++) {
+                if (!valuesEqual(listA.get(i), listB.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.equals(b);
+    }
+
+}
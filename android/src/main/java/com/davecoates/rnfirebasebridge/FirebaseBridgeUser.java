@@ -75,7 +75,7 @@ public class FirebaseBridgeUser extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    void link(String appName, String credentialId, final Promise promise)
+    void link(String appName, final String credentialId, final Promise promise)
     {
         AuthCredential credential = FirebaseBridgeCredentialCache.getCredential(credentialId);
         if (credential == null) {
@@ -86,6 +86,7 @@ public class FirebaseBridgeUser extends ReactContextBaseJavaModule {
                 .addOnSuccessListener(new OnSuccessListener<AuthResult>() {
                     @Override
                     public void onSuccess(AuthResult authResult) {
+                        FirebaseBridgeCredentialCache.used(credentialId);
                         promise.resolve(FirebaseBridgeAuth.convertUser(authResult.getUser()));
                     }
                 })
@@ -99,7 +100,7 @@ public class FirebaseBridgeUser extends ReactContextBaseJavaModule {
     }
 
     @ReactMethod
-    void reauthenticate(String appName, String credentialId, final Promise promise)
+    void reauthenticate(String appName, final String credentialId, final Promise promise)
     {
         AuthCredential credential = FirebaseBridgeCredentialCache.getCredential(credentialId);
         if (credential == null) {
@@ -110,6 +111,7 @@ public class FirebaseBridgeUser extends ReactContextBaseJavaModule {
                 .addOnSuccessListener(new OnSuccessListener<Void>() {
                     @Override
                     public void onSuccess(Void aVoid) {
+                        FirebaseBridgeCredentialCache.used(credentialId);
                         promise.resolve(null);
                     }
                 })
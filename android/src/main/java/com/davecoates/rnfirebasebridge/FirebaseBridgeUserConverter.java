@@ -0,0 +1,31 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableMap;
+import com.google.firebase.auth.FirebaseUser;
+
+/**
+ * Converts a FirebaseUser into a map that can be sent across the bridge. Kept
+ * apart from FirebaseBridgeAuth so it can be benchmarked without the rest of
+ * the auth module (see android/benchmarks).
+ */
+class FirebaseBridgeUserConverter {
+
+    private FirebaseBridgeUserConverter() {
+    }
+
+    static WritableMap convert(FirebaseUser user) {
+        final WritableMap m = Arguments.createMap();
+        m.putString("uid", user.getUid());
+        m.putString("email", user.getEmail());
+        m.putBoolean("emailVerified", user.isEmailVerified());
+        m.putString("displayName", user.getDisplayName());
+        if (user.getPhotoUrl() != null) {
+            m.putString("photoUrl", user.getPhotoUrl().toString());
+        }
+        m.putBoolean("isAnonymous", user.isAnonymous());
+        m.putString("providerId", user.getProviderId());
+        return m;
+    }
+
+}
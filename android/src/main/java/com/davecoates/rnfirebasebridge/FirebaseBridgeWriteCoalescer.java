@@ -0,0 +1,188 @@
+package com.davecoates.rnfirebasebridge;
+
+import com.facebook.react.bridge.Promise;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last write wins coalescing for setValueCoalesced(). Writes to a database are
+ * held for a window starting at the first of them; a later write to the same
+ * path replaces the held value. At the end of the window each held path is
+ * written with its own setValue(), in the order the paths
+ * were first written, and the promises for that path (including those of
+ * replaced writes) are settled with its result. A failed write only rejects
+ * the promises for its own path.
+ *
+ * A write overlapping a held path (other than the same path) sends what is
+ * held first, as does any other write to an overlapping location (see
+ * flushOverlapping()). That keeps overlapping writes in order.
+ */
+class FirebaseBridgeWriteCoalescer {
+
+    private static class Write {
+        Object value;
+        final List<Promise> promises = new ArrayList<>();
+    }
+
+    private static class Pending {
+        final DatabaseReference root;
+        // Keyed by path from root
+        final Map<String, Write> writes = new LinkedHashMap<>();
+        ScheduledFuture<?> flush;
+
+        Pending(DatabaseReference root) {
+            this.root = root;
+        }
+
+        boolean overlaps(String path, boolean includeSame) {
+            for (String existing : writes.keySet()) {
+                if ((includeSame || !existing.equals(path)) && FirebaseBridgeBatchWrite.overlaps(existing, path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final ScheduledExecutorService scheduler;
+    // Keyed by root URL
+    private final Map<String, Pending> pending = new HashMap<>();
+
+    private long writes = 0;
+    private long superseded = 0;
+    private long flushes = 0;
+
+    FirebaseBridgeWriteCoalescer(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param windowMs how long to hold writes for if this is the first write
+     *                 held for ref's database
+     * @param promise resolved once the value (or a later one for the same path)
+     *                has been written
+     */
+    synchronized void set(DatabaseReference ref, Object value, long windowMs, Promise promise) {
+        writes++;
+        DatabaseReference root = ref.getRoot();
+        final String rootUrl = root.toString();
+        String path = FirebaseBridgeBatchWrite.pathFromRoot(ref);
+        Pending held = pending.get(rootUrl);
+        if (held != null && held.overlaps(path, false)) {
+            flush(rootUrl);
+            held = null;
+        }
+        if (held == null) {
+            final Pending created = new Pending(root);
+            pending.put(rootUrl, created);
+            created.flush = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (FirebaseBridgeWriteCoalescer.this) {
+                        // May have been flushed early and replaced while we waited
+                        if (pending.get(rootUrl) == created) {
+                            flush(rootUrl);
+                        }
+                    }
+                }
+            }, Math.max(0, windowMs), TimeUnit.MILLISECONDS);
+            held = created;
+        }
+        Write write = held.writes.get(path);
+        if (write == null) {
+            write = new Write();
+            held.writes.put(path, write);
+        } else {
+            superseded++;
+        }
+        write.value = value;
+        write.promises.add(promise);
+    }
+
+    /**
+     * Send anything held that overlaps ref now. Call before any other write so
+     * it isn't overwritten by an older held value.
+     */
+    synchronized void flushOverlapping(DatabaseReference ref) {
+        String rootUrl = ref.getRoot().toString();
+        Pending held = pending.get(rootUrl);
+        if (held != null && held.overlaps(FirebaseBridgeBatchWrite.pathFromRoot(ref), true)) {
+            flush(rootUrl);
+        }
+    }
+
+    /**
+     * Write everything held now, eg. before the module is destroyed
+     */
+    synchronized void flushAll() {
+        for (String rootUrl : new ArrayList<>(pending.keySet())) {
+            flush(rootUrl);
+        }
+    }
+
+    // Must hold lock
+    private void flush(String rootUrl) {
+        final Pending held = pending.remove(rootUrl);
+        if (held == null) {
+            return;
+        }
+        held.flush.cancel(false);
+        flushes++;
+        for (Map.Entry<String, Write> entry : held.writes.entrySet()) {
+            write(held.root, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void write(DatabaseReference root, String path, final Write write) {
+        try {
+            DatabaseReference ref = path.isEmpty() ? root : root.child(path);
+            ref.setValue(write.value, new DatabaseReference.CompletionListener() {
+                @Override
+                public void onComplete(DatabaseError databaseError, DatabaseReference databaseReference) {
+                    for (Promise promise : write.promises) {
+                        if (databaseError != null) {
+                            promise.reject(databaseError.toException());
+                        } else {
+                            promise.resolve(null);
+                        }
+                    }
+                }
+            });
+        } catch (DatabaseException e) {
+            for (Promise promise : write.promises) {
+                promise.reject("invalid_value", e.getMessage());
+            }
+        }
+    }
+
+    synchronized long getWrites() {
+        return writes;
+    }
+
+    synchronized long getSuperseded() {
+        return superseded;
+    }
+
+    synchronized long getFlushes() {
+        return flushes;
+    }
+
+    synchronized int getPendingWrites() {
+        int count = 0;
+        for (Pending held : pending.values()) {
+            count += held.writes.size();
+        }
+        return count;
+    }
+
+}
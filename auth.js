@@ -1,6 +1,6 @@
 // @flow
 import { NativeModules, NativeEventEmitter } from 'react-native';
-import type { User, AuthCredential, App } from './types';
+import type { User, AuthCredential, CredentialCacheOptions, App } from './types';
 
 const NativeFirebaseBridgeAuth = NativeModules.FirebaseBridgeAuth;
 const NativeFirebaseBridgeUser = NativeModules.FirebaseBridgeUser;
@@ -149,6 +149,16 @@ export default class Auth {
         return NativeFirebaseBridgeAuth.signOut(this.app.name);
     }
 
+    /**
+     * Android only. Control how long credentials from the auth providers are
+     * kept natively.
+     */
+    static setCredentialCacheOptions(options:CredentialCacheOptions) {
+        if (NativeFirebaseBridgeAuth.setCredentialCacheOptions) {
+            NativeFirebaseBridgeAuth.setCredentialCacheOptions(options);
+        }
+    }
+
 }
 
 const {
@@ -1,7 +1,8 @@
 // @flow
-import { NativeModules, NativeEventEmitter } from 'react-native';
+import { NativeModules, NativeEventEmitter, Platform } from 'react-native';
 import invariant from 'invariant';
 import type {
+    ChildEventType,
     EventType,
     DataSnapshotDescriptor,
     DataSnapshot as DataSnapshotType,
@@ -9,11 +10,106 @@ import type {
     DatabaseReferenceDescriptor,
     Query as QueryType,
     Priority,
+    PathOp,
+    SubscriptionOptions,
+    ValueOptions,
+    BatchWriteOp,
+    BatchWriteResult,
+    DatabaseStats,
+    GetValueOptions,
+    TransactionType,
+    TransactionResult,
     App,
 } from './types';
 
 const NativeFirebaseBridgeDatabase = NativeModules.FirebaseBridgeDatabase;
 
+// Snapshots sent with their value inline (see `inlineThreshold` option to on / once)
+// have no uuid as nothing is cached natively. Any operations on them are answered
+// from the value directly.
+function isInline(data:DataSnapshotDescriptor) : boolean {
+    return data.uuid == null && data.cursorId == null;
+}
+
+// Children from a cursor (see forEach) aren't cached natively until something
+// needs them. Resolves with the uuid, caching the child the first time.
+function snapshotUUID(data:DataSnapshotDescriptor) : Promise<string> {
+    if (data.uuid != null) {
+        return Promise.resolve(data.uuid);
+    }
+    if (!data.cachedChild) {
+        data.cachedChild = NativeFirebaseBridgeDatabase.cursorChild(data.cursorId, data.index);
+    }
+    return data.cachedChild.then(({ uuid }) => uuid);
+}
+
+function releaseSnapshot(data:DataSnapshotDescriptor) {
+    if (data.uuid != null) {
+        NativeFirebaseBridgeDatabase.releaseSnapshot(data.uuid);
+    } else if (data.cachedChild) {
+        data.cachedChild.then(({ uuid }) => NativeFirebaseBridgeDatabase.releaseSnapshot(uuid));
+    }
+}
+
+function countChildren(value:any) : number {
+    if (value == null || typeof value != 'object') {
+        return 0;
+    }
+    return Object.keys(value).filter(key => value[key] != null).length;
+}
+
+function inlineChild(data:DataSnapshotDescriptor, path:string) : DataSnapshotDescriptor {
+    const segments = path.split('/').filter(segment => segment.length > 0);
+    let value = data.value;
+    for (const segment of segments) {
+        value = value != null && typeof value == 'object' ? value[segment] : null;
+    }
+    if (value === undefined) {
+        value = null;
+    }
+    const childrenCount = countChildren(value);
+    const { locationUrl, key } = data.ref;
+    return {
+        ref: {
+            key: segments.length > 0 ? segments[segments.length - 1] : key,
+            locationUrl: locationUrl && segments.length > 0
+                ? `${locationUrl}/${segments.join('/')}` : locationUrl,
+        },
+        childrenCount,
+        hasChildren: childrenCount > 0,
+        exists: value != null,
+        // Priorities of children aren't sent for inline snapshots
+        priority: null,
+        value,
+    };
+}
+
+// Number of children fetched at a time by DataSnapshot.forEach
+const CHILDREN_PAGE_SIZE = 100;
+
+// Apply the projection in ValueOptions to a value. Android does this natively;
+// this is used for inline snapshots and on iOS.
+function projectValue(value:any, options:ValueOptions, depth:number = 0) : any {
+    if (value == null || typeof value != 'object') {
+        return value;
+    }
+    const { fields = [], maxDepth } = options;
+    if (maxDepth != null && depth >= maxDepth) {
+        return { '.childrenCount': countChildren(value) };
+    }
+    const level = fields[depth];
+    if (Array.isArray(value) && level == null) {
+        return value.map(child => projectValue(child, options, depth + 1));
+    }
+    const result = {};
+    Object.keys(value).forEach((key) => {
+        if (level == null || level.indexOf(key) !== -1) {
+            result[key] = projectValue(value[key], options, depth + 1);
+        }
+    });
+    return result;
+}
+
 export class DataSnapshot {
 
     parentPromise:Promise<DataSnapshotDescriptor>;
@@ -23,15 +119,20 @@ export class DataSnapshot {
     }
 
     child(path:string) : DataSnapshot {
-        const promise = this.parentPromise.then(({ uuid }) =>
-            NativeFirebaseBridgeDatabase.snapshotChild(uuid, path)
-        );
+        const promise = this.parentPromise.then(data => (
+            isInline(data)
+                ? inlineChild(data, path)
+                : snapshotUUID(data).then(uuid => NativeFirebaseBridgeDatabase.snapshotChild(uuid, path))
+        ));
         return new DataSnapshot(promise);
     }
 
     hasChild(path:string) : Promise<boolean> {
-        return this.parentPromise.then(({ uuid }) =>
-            NativeFirebaseBridgeDatabase.snapshotHasChild(uuid, path));
+        return this.parentPromise.then(data => (
+            isInline(data)
+                ? inlineChild(data, path).exists
+                : snapshotUUID(data).then(uuid => NativeFirebaseBridgeDatabase.snapshotHasChild(uuid, path))
+        ));
     }
 
     hasChildren() {
@@ -46,19 +147,41 @@ export class DataSnapshot {
         return this.parentPromise.then(({ childrenCount }) => childrenCount);
     }
 
-    val() : Promise<any> {
-        return this.parentPromise.then(({ uuid }) =>
-            NativeFirebaseBridgeDatabase.snapshotValue(uuid));
+    /**
+     * Get the value of the snapshot. Pass options to only get part of it; see
+     * ValueOptions.
+     */
+    val(options:?ValueOptions = null) : Promise<any> {
+        return this.parentPromise.then((data) => {
+            if (isInline(data)) {
+                return options ? projectValue(data.value, options) : data.value;
+            }
+            return snapshotUUID(data).then(async (uuid) => {
+                const value = await NativeFirebaseBridgeDatabase.snapshotValue(uuid, options);
+                if (!options) {
+                    return value;
+                }
+                if (Platform.OS !== 'android') {
+                    return projectValue(value, options);
+                }
+                return options.encoding === 'json' ? JSON.parse(value) : value;
+            });
+        });
     }
 
     key() : Promise<any> {
-        return this.parentPromise.then(({ uuid }) =>
-            NativeFirebaseBridgeDatabase.snapshotKey(uuid));
+        return this.parentPromise.then(data => (
+            isInline(data) || data.cursorId != null
+                ? data.ref.key
+                : NativeFirebaseBridgeDatabase.snapshotKey(data.uuid)
+        ));
     }
 
     exportVal() : Promise<any> {
-        return this.parentPromise.then(({ uuid }) =>
-            NativeFirebaseBridgeDatabase.snapshotExportValue(uuid));
+        // Inline snapshots don't include priorities so this is the same as val()
+        return this.parentPromise.then(data => (
+            isInline(data) ? data.value : snapshotUUID(data).then(NativeFirebaseBridgeDatabase.snapshotExportValue)
+        ));
     }
 
     getPriority() : Promise<Priority> {
@@ -87,7 +210,7 @@ export class DataSnapshot {
                 'with the native modules is async so we cache snapshots and manually ' +
                 'release them.'
             );
-            const release = () => NativeFirebaseBridgeDatabase.releaseSnapshot(data.uuid);
+            const release = () => releaseSnapshot(data);
             if (promise && promise.then) {
                 promise.then(release, e => {
                     release();
@@ -96,41 +219,119 @@ export class DataSnapshot {
             }
             return promise;
         };
-        return this.parentPromise.then(({ uuid }) =>
-            NativeFirebaseBridgeDatabase.snapshotChildren(uuid).then(async (children = []) => {
-                let terminated = false;
-                for (const child:DataSnapshotDescriptor of children) {
-                    if (terminated) {
-                        NativeFirebaseBridgeDatabase.releaseSnapshot(child.uuid);
-                        continue;
-                    }
-                    const result = await wrapCb(child);
-                    // Boolean true indicates we should stop iterating now.
-                    // Flag for termination but continue iterating to release remaining snapshots.
-                    if (result === true) {
-                        terminated = true;
-                    }
+        const getChildren = (data:DataSnapshotDescriptor) : Promise<Array<DataSnapshotDescriptor>> => {
+            if (isInline(data)) {
+                const value = data.value;
+                const keys = value != null && typeof value == 'object' ? Object.keys(value) : [];
+                return Promise.resolve(keys
+                    .filter(key => value[key] != null)
+                    .map(key => inlineChild(data, key)));
+            }
+            return snapshotUUID(data).then(NativeFirebaseBridgeDatabase.snapshotChildren);
+        };
+        // Resolves with the number of children the callback was called for
+        const iterate = async (children:Array<DataSnapshotDescriptor>) : Promise<number> => {
+            for (let i = 0; i < children.length; i++) {
+                const result = await wrapCb(children[i]);
+                // Boolean true indicates we should stop iterating now.
+                if (result === true) {
+                    return i + 1;
+                }
+            }
+            return children.length;
+        };
+        return this.parentPromise.then(async (data) => {
+            if (isInline(data) || !NativeFirebaseBridgeDatabase.openChildrenCursor) {
+                const children = await getChildren(data) || [];
+                const count = await iterate(children);
+                // Release any children we didn't get to
+                children.slice(count).forEach(releaseSnapshot);
+                return;
+            }
+            // Fetch children a page at a time; each is only cached natively if
+            // the callback uses it.
+            const uuid = await snapshotUUID(data);
+            const { cursorId } = await NativeFirebaseBridgeDatabase.openChildrenCursor(
+                uuid, CHILDREN_PAGE_SIZE);
+            try {
+                let done = false;
+                while (!done) {
+                    const page = await NativeFirebaseBridgeDatabase.nextChildren(cursorId);
+                    const count = await iterate(page.children);
+                    done = page.done || count < page.children.length;
                 }
-            }));
+            } finally {
+                NativeFirebaseBridgeDatabase.closeCursor(cursorId);
+            }
+        });
     }
 
 }
 
 const eventListenersById = {};
 const databaseEmitter = new NativeEventEmitter(NativeFirebaseBridgeDatabase);
-databaseEmitter.addListener('databaseOn', data => {
-    const { id, snapshot, error } = data;
-    if (eventListenersById[id]) {
-        const { listener, cancelCallback } = eventListenersById[id];
-        if (!error) {
-            listener(snapshot);
-        } else {
-            if (cancelCallback) {
-                cancelCallback(new Error(error));
+function handleDatabaseEvent(data) {
+    // Identical subscriptions share a native listener on Android in which case
+    // ids lists every subscriber the event is for.
+    const { id, ids = [id], snapshot, delta, error } = data;
+    if (snapshot && snapshot.valueJson != null) {
+        // Inline value sent as JSON (encoding: 'json' option)
+        snapshot.value = JSON.parse(snapshot.valueJson);
+        delete snapshot.valueJson;
+    }
+    for (const subscriberId of ids) {
+        if (eventListenersById[subscriberId]) {
+            const { listener, cancelCallback } = eventListenersById[subscriberId];
+            if (!error) {
+                // value_delta listeners receive a list of patches instead of a snapshot.
+                // The event is passed too for child events' eventType and previousChildName.
+                listener(delta || snapshot, data);
+            } else {
+                if (cancelCallback) {
+                    cancelCallback(new Error(error));
+                }
             }
+        } else if (snapshot) {
+            // Nobody is listening (eg. they have unsubscribed) so release the
+            // reference held for this subscriber straight away.
+            releaseSnapshot(snapshot);
         }
     }
-});
+}
+databaseEmitter.addListener('databaseOn', handleDatabaseEvent);
+// Sent instead of databaseOn when batching is enabled; see Database.setEventBatching
+databaseEmitter.addListener('databaseOnBatch', events => events.forEach(handleDatabaseEvent));
+
+// Wrap cb as an eventListenersById listener for events with cached snapshots,
+// releasing each snapshot once the promise returned by cb settles.
+function snapshotListener(cb:((snapshot:DataSnapshotType, event:Object) => Promise<void>)) {
+    return (data:DataSnapshotDescriptor, event:Object) => {
+        // Snapshot's are cached on the native side so we can perform further
+        // queries on them. Because of this we need a way to release the
+        // snapshot once we are done with them. We do this by returning a
+        // promise which, when it resolves (or rejects), causes the snapshot
+        // to be released on the native. The most convenient way to do this
+        // is to simply define your callback as async:
+        // ref.on(async (snapshot) => {
+        //    // this now automatically returns a promise
+        // })
+        const snapshot:DataSnapshotType = new DataSnapshot(data);
+        const promise = cb(snapshot, event);
+        invariant(promise && typeof promise.then == 'function',
+            'DatabaseReference listeners should return a promise so we know when ' +
+            'you are done with snapshots. This is necessary as all interaction ' +
+            'with the native modules is async so we cache snapshots and manually ' +
+            'release them.'
+        );
+        const release = () => releaseSnapshot(data);
+        if (promise && promise.then) {
+            promise.then(release, e => {
+                release();
+                throw e;
+            });
+        }
+    };
+}
 
 export class Query {
 
@@ -181,48 +382,71 @@ export class Query {
     }
 
     /**
-     * Subscribe to an event.
+     * Subscribe to an event. Child event callbacks also receive the key of the
+     * previous child (null for the first child).
      * @return {Function} a function that will unsubscribe from this event
      */
     on(eventType:EventType,
-       cb:((snapshot:DataSnapshotType) => Promise<void>),
-       cancelCallback:((error:Error) => void) = null
+       cb:((snapshot:DataSnapshotType, previousChildName:?string) => Promise<void>),
+       cancelCallback:((error:Error) => void) = null,
+       options:SubscriptionOptions = {}
    ) : () => void {
         const p = this.parentPromise.then(
             ({ locationUrl }) => NativeFirebaseBridgeDatabase.on(
-                this.app.name, locationUrl, eventType, this.query))
+                this.app.name, locationUrl, eventType, this.query, options))
             .then(uniqueEventName => {
                 // We receive a string back from the native module that is a unique
                 // event name just for this event registration. An event with this name
                 // will be emitted for this registration. This is cached on the native
                 // side with the event registration handle so we can unsubscribe as
                 // needed.
-                const listener = (data:DataSnapshotDescriptor) => {
-                    // Snapshot's are cached on the native side so we can perform further
-                    // queries on them. Because of this we need a way to release the
-                    // snapshot once we are done with them. We do this by returning a
-                    // promise which, when it resolves (or rejects), causes the snapshot
-                    // to be released on the native. The most convenient way to do this
-                    // is to simply define your callback as async:
-                    // ref.on(async (snapshot) => {
-                    //    // this now automatically returns a promise
-                    // })
-                    const snapshot:DataSnapshotType = new DataSnapshot(data);
-                    const promise = cb(snapshot);
-                    invariant(promise && typeof promise.then == 'function',
-                        'DatabaseReference listeners should return a promise so we know when ' +
-                        'you are done with snapshots. This is necessary as all interaction ' +
-                        'with the native modules is async so we cache snapshots and manually ' +
-                        'release them.'
-                    );
-                    const release = () => NativeFirebaseBridgeDatabase.releaseSnapshot(data.uuid);
-                    if (promise && promise.then) {
-                        promise.then(release, e => {
-                            release();
-                            throw e;
-                        });
-                    }
+                if (eventType === 'value_delta') {
+                    // Nothing is cached natively for these so no release is needed
+                    eventListenersById[uniqueEventName] = { listener: cb, cancelCallback };
+                    return () => {
+                        NativeFirebaseBridgeDatabase.off(uniqueEventName);
+                        delete eventListenersById[uniqueEventName];
+                    };
+                }
+                const listener = snapshotListener(
+                    (snapshot, event) => cb(snapshot, event.previousChildName));
+                eventListenersById[uniqueEventName] = { listener, cancelCallback };
+                return () => {
+                    NativeFirebaseBridgeDatabase.off(uniqueEventName);
+                    delete eventListenersById[uniqueEventName];
                 };
+            }, error => {
+                if (cancelCallback) {
+                    cancelCallback(error);
+                }
+            });
+        return () => {
+            p.then(unsubscribe => unsubscribe());
+        };
+    }
+
+    /**
+     * Subscribe to several child events at once. On Android this uses a single
+     * native listener; elsewhere it is one on() per event type.
+     * @return {Function} a function that will unsubscribe from all the events
+     */
+    onChildren(eventTypes:Array<ChildEventType>,
+       cb:((snapshot:DataSnapshotType, eventType:ChildEventType, previousChildName:?string) => Promise<void>),
+       cancelCallback:((error:Error) => void) = null,
+       options:SubscriptionOptions = {}
+    ) : () => void {
+        if (!NativeFirebaseBridgeDatabase.onChildren) {
+            const unsubscribes = eventTypes.map(eventType => this.on(eventType,
+                (snapshot, previousChildName) => cb(snapshot, eventType, previousChildName),
+                cancelCallback, options));
+            return () => unsubscribes.forEach(unsubscribe => unsubscribe());
+        }
+        const p = this.parentPromise.then(
+            ({ locationUrl }) => NativeFirebaseBridgeDatabase.onChildren(
+                this.app.name, locationUrl, eventTypes, this.query, options))
+            .then(uniqueEventName => {
+                const listener = snapshotListener(
+                    (snapshot, event) => cb(snapshot, event.eventType, event.previousChildName));
                 eventListenersById[uniqueEventName] = { listener, cancelCallback };
                 return () => {
                     NativeFirebaseBridgeDatabase.off(uniqueEventName);
@@ -240,11 +464,12 @@ export class Query {
 
     once(eventType:EventType,
          cb:((snapshot:DataSnapshotType) => Promise<void>),
-         cancelCallback:((error:Error) => void) = null
+         cancelCallback:((error:Error) => void) = null,
+         options:SubscriptionOptions = {}
      ) : () => void {
         const p = this.parentPromise.then(
             ({ locationUrl }) => NativeFirebaseBridgeDatabase.once(
-                this.app.name, locationUrl, eventType, this.query))
+                this.app.name, locationUrl, eventType, this.query, options))
             .then(uniqueEventName => {
                 // We receive a string back from the native module that is a unique
                 // event name just for this event registration. An event with this name
@@ -269,7 +494,7 @@ export class Query {
                         'with the native modules is async so we cache snapshots and manually ' +
                         'release them.'
                     );
-                    const release = () => NativeFirebaseBridgeDatabase.releaseSnapshot(data.uuid);
+                    const release = () => releaseSnapshot(data);
                     if (promise && promise.then) {
                         promise.then(release, e => {
                             release();
@@ -287,6 +512,38 @@ export class Query {
         };
     }
 
+    /**
+     * Read the current value once. Resolves with a snapshot that has its value
+     * inline so nothing is cached natively and no release is needed. Options
+     * are applied before the value is sent; call val() on the result without
+     * options.
+     */
+    getValue(options:?GetValueOptions = null) : Promise<DataSnapshotType> {
+        if (!NativeFirebaseBridgeDatabase.getValue) {
+            return new Promise((resolve, reject) => {
+                this.once('value', async (snapshot) => {
+                    const [data, value] = await Promise.all([
+                        snapshot.parentPromise,
+                        options && options.exportFormat ? snapshot.exportVal() : snapshot.val(options),
+                    ]);
+                    const inline = Object.assign({}, data, { value });
+                    delete inline.uuid;
+                    resolve(new DataSnapshot(inline));
+                }, reject);
+            });
+        }
+        return this.parentPromise.then(
+            ({ locationUrl }) => NativeFirebaseBridgeDatabase.getValue(
+                this.app.name, locationUrl, this.query, options))
+            .then((data:DataSnapshotDescriptor) => {
+                if (data.valueJson != null) {
+                    data.value = JSON.parse(data.valueJson);
+                    delete data.valueJson;
+                }
+                return new DataSnapshot(data);
+            });
+    }
+
     orderByChild(path:string) : QueryType {
         return new Query(this.app, this.parentPromise, [...this.query, ['orderByChild', path]]);
     }
@@ -310,21 +567,83 @@ export class Query {
 }
 
 
+// Navigate one step at a time using the location URL. Used where native handles
+// aren't available (iOS).
+function navigateByUrl(
+    appName:string,
+    descriptor:DatabaseReferenceDescriptor,
+    pathOps:Array<PathOp>) : Promise<DatabaseReferenceDescriptor> {
+    return pathOps.reduce((promise, [op, path]) => promise.then(({ locationUrl }) => {
+        switch (op) {
+            case 'child':
+                return NativeFirebaseBridgeDatabase.child(appName, locationUrl, path);
+            case 'parent':
+                return NativeFirebaseBridgeDatabase.parent(appName, locationUrl);
+            case 'root':
+                return NativeFirebaseBridgeDatabase.root(appName, locationUrl);
+            case 'push':
+                return NativeFirebaseBridgeDatabase.push(appName, locationUrl);
+            default:
+                throw new Error(`Unknown path op ${op}`);
+        }
+    }), Promise.resolve(descriptor));
+}
+
 export class DatabaseReference extends Query {
 
     child(pathString:string) : DatabaseReferenceType {
-        const promise = this.parentPromise.then(
-            ({ locationUrl }) => NativeFirebaseBridgeDatabase.child(
-                this.app.name, locationUrl, pathString));
-        return new DatabaseReference(this.app, promise);
+        return this.navigate([['child', pathString]]);
     }
 
     push() : DatabaseReferenceType {
-        const promise = this.parentPromise.then(
-            ({ locationUrl }) => NativeFirebaseBridgeDatabase.push(this.app.name, locationUrl));
+        return this.navigate([['push']]);
+    }
+
+    /**
+     * Apply a list of steps (eg. [['child', 'users'], ['child', uid], ['parent']])
+     * to this reference. On Android this is done in a single native call.
+     */
+    navigate(pathOps:Array<PathOp>) : DatabaseReferenceType {
+        const promise = this.parentPromise.then((descriptor) => {
+            if (descriptor.handle == null || !NativeFirebaseBridgeDatabase.resolve) {
+                return navigateByUrl(this.app.name, descriptor, pathOps);
+            }
+            return NativeFirebaseBridgeDatabase.resolve(descriptor.handle, pathOps).catch((error) => {
+                // Handles are bounded natively; the URL still works
+                if (error.code === 'invalid_ref_handle') {
+                    return navigateByUrl(this.app.name, descriptor, pathOps);
+                }
+                throw error;
+            });
+        });
         return new DatabaseReference(this.app, promise);
     }
 
+    /**
+     * Read the value at path (relative to this reference) from an on() listener
+     * with the mirror option at or above it, without going to the SDK. Same as
+     * child(path).getValue(options) if no mirror has the value.
+     */
+    readMirrored(path:?string = null, options:?GetValueOptions = null) : Promise<DataSnapshotType> {
+        const fallback = () => (path ? this.child(path) : this).getValue(options);
+        if (!NativeFirebaseBridgeDatabase.readMirrored) {
+            return fallback();
+        }
+        return this.parentPromise.then(
+            ({ locationUrl }) => NativeFirebaseBridgeDatabase.readMirrored(
+                this.app.name, locationUrl, path, options))
+            .then((data:?DataSnapshotDescriptor) => {
+                if (!data) {
+                    return fallback();
+                }
+                if (data.valueJson != null) {
+                    data.value = JSON.parse(data.valueJson);
+                    delete data.valueJson;
+                }
+                return new DataSnapshot(data);
+            });
+    }
+
     setValue(value:any) : Promise<void> {
         // We wrap value in array for easier handling on Android.
         // See FirebridgeDatabase.java setValue()
@@ -333,6 +652,35 @@ export class DatabaseReference extends Query {
                 this.app.name, locationUrl, [value]));
     }
 
+    /**
+     * setValue for values written many times a second (eg. a cursor position).
+     * On Android writes are held for windowMs and only the latest value for
+     * each path is written; the promise resolves once that write completes.
+     * Elsewhere this is the same as setValue.
+     */
+    setValueCoalesced(value:any, windowMs:number = 50) : Promise<void> {
+        if (!NativeFirebaseBridgeDatabase.setValueCoalesced) {
+            return this.setValue(value);
+        }
+        return this.parentPromise.then(
+            ({ locationUrl }) => NativeFirebaseBridgeDatabase.setValueCoalesced(
+                this.app.name, locationUrl, [value], windowMs));
+    }
+
+    /**
+     * Android only. Run an atomic operation at this location natively with a
+     * transaction, retrying as the SDK requires without any JS round trips.
+     * For compareAndSet value is only set if the current value equals expected.
+     */
+    runTransaction(type:TransactionType, value:any, expected:any = null) : Promise<TransactionResult> {
+        if (!NativeFirebaseBridgeDatabase.runTransaction) {
+            return Promise.reject(new Error('runTransaction is only supported on Android'));
+        }
+        return this.parentPromise.then(
+            ({ locationUrl }) => NativeFirebaseBridgeDatabase.runTransaction(
+                this.app.name, locationUrl, type, [value], type === 'compareAndSet' ? [expected] : null));
+    }
+
     update(value:{ [key:string]: any }) : Promise<void> {
         return this.parentPromise.then(
             ({ locationUrl }) => NativeFirebaseBridgeDatabase.update(
@@ -366,20 +714,33 @@ export class DatabaseReference extends Query {
         return this.parentPromise.then(({ key }) => key);
     }
 
-    parent() : Promise<DatabaseReference> {
-        return new DatabaseReference(this.app, this.parentPromise.then(
-            ({ locationUrl }) => NativeFirebaseBridgeDatabase.parent(
-                this.app.name, locationUrl)));
+    parent() : DatabaseReference {
+        return this.navigate([['parent']]);
     }
 
-    root() : Promise<DatabaseReference> {
-        return new DatabaseReference(this.app, this.parentPromise.then(
-            ({ locationUrl }) => NativeFirebaseBridgeDatabase.parent(
-                this.app.name, locationUrl)));
+    root() : DatabaseReference {
+        return this.navigate([['root']]);
     }
 
 }
 
+function runWrite(op:BatchWriteOp) : Promise<void> {
+    switch (op.type) {
+        case 'set':
+            return op.ref.setValue(op.value);
+        case 'setWithPriority':
+            return op.ref.setValueWithPriority(op.value, op.priority);
+        case 'setPriority':
+            return op.ref.setPriority(op.priority);
+        case 'remove':
+            return op.ref.remove();
+        case 'update':
+            return op.ref.update(op.value);
+        default:
+            return Promise.reject(new Error(`Unknown batchWrite operation ${op.type}`));
+    }
+}
+
 class Database {
 
     static ServerValue = {
@@ -394,6 +755,47 @@ class Database {
         return NativeFirebaseBridgeDatabase.sdkVersion();
     }
 
+    /**
+     * Android only. Buffer database events natively and send them to JS together
+     * once windowMs has passed or maxBatchSize events are waiting. Pass 0 for
+     * windowMs to disable.
+     */
+    static setEventBatching(windowMs:number, maxBatchSize:number = 100) {
+        if (NativeFirebaseBridgeDatabase.setEventBatching) {
+            NativeFirebaseBridgeDatabase.setEventBatching(windowMs, maxBatchSize);
+        }
+    }
+
+    /**
+     * Android only. Number of background threads used to convert snapshots and
+     * send events. 0 does the work on the main thread as Firebase calls back.
+     */
+    static setConversionThreads(threads:number) {
+        if (NativeFirebaseBridgeDatabase.setConversionThreads) {
+            NativeFirebaseBridgeDatabase.setConversionThreads(threads);
+        }
+    }
+
+    /**
+     * Android only. Event counts, conversion times and payload sizes for each
+     * active listener and in total. Resolves null on other platforms.
+     */
+    static getStats() : Promise<?DatabaseStats> {
+        if (!NativeFirebaseBridgeDatabase.getStats) {
+            return Promise.resolve(null);
+        }
+        return NativeFirebaseBridgeDatabase.getStats();
+    }
+
+    /**
+     * Android only. Zero the counters returned by getStats.
+     */
+    static resetStats() {
+        if (NativeFirebaseBridgeDatabase.resetStats) {
+            NativeFirebaseBridgeDatabase.resetStats();
+        }
+    }
+
 
     app: App;
 
@@ -416,6 +818,31 @@ class Database {
         NativeFirebaseBridgeDatabase.setPersistenceEnabled(this.app.name, enabled);
     }
 
+    /**
+     * Run several writes with a single native call. Resolves once all have
+     * completed with a result for each operation, in order. On Android adjacent
+     * set / remove / update operations are sent to the server as one update.
+     */
+    async batchWrite(ops:Array<BatchWriteOp>) : Promise<Array<BatchWriteResult>> {
+        await this.app.ready();
+        if (!NativeFirebaseBridgeDatabase.batchWrite) {
+            return Promise.all(ops.map(op => runWrite(op).then(
+                () => ({ ok: true }),
+                error => ({ ok: false, code: error.code || 'database_error', message: error.message }))));
+        }
+        const nativeOps = await Promise.all(ops.map(async (op) => {
+            const { locationUrl } = await op.ref.parentPromise;
+            // value and priority are wrapped in an array as for setValue
+            return {
+                type: op.type,
+                url: locationUrl,
+                value: op.type === 'update' ? op.value : [op.value],
+                priority: [op.priority],
+            };
+        }));
+        return NativeFirebaseBridgeDatabase.batchWrite(this.app.name, nativeOps);
+    }
+
     ref(path?:string) : DatabaseReference {
         invariant(path == null || typeof path == 'string',
             `If path is provided it must be a string, received ${typeof path}`
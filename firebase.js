@@ -91,10 +91,23 @@ auth.FacebookAuthProvider = Auth.FacebookAuthProvider;
 auth.GoogleAuthProvider = Auth.GoogleAuthProvider;
 auth.GithubAuthProvider = Auth.GithubAuthProvider;
 auth.TwitterAuthProvider = Auth.TwitterAuthProvider;
+auth.setCredentialCacheOptions = Auth.setCredentialCacheOptions;
+
+/**
+ * Android only. Milliseconds taken to construct each native module built so
+ * far, keyed by module name. Resolves null on other platforms.
+ */
+function getModuleConstructionTimes() : Promise<?{ [name:string]: number }> {
+    if (!NativeFirebaseBridgeApp.getModuleConstructionTimes) {
+        return Promise.resolve(null);
+    }
+    return NativeFirebaseBridgeApp.getModuleConstructionTimes();
+}
 
 export default {
     database,
     auth,
     initializeApp,
     initializeDefaultApp,
+    getModuleConstructionTimes,
 };
@@ -18,6 +18,7 @@ RCT_EXTERN_METHOD(once:(NSString)appName
                   databaseUrl:(NSString)databaseUrl
                   eventTypeString:(NSString)eventTypeString
                   query:NSObject
+                  options:NSObject
                   resolver:(RCTPromiseResolveBlock)resolve
                   rejecter:(RCTPromiseRejectBlock)reject)
 
@@ -25,6 +26,7 @@ RCT_EXTERN_METHOD(on:(NSString)appName
                   databaseUrl:(NSString)databaseUrl
                   eventTypeString:(NSString)eventTypeString
                   query:NSObject
+                  options:NSObject
                   resolver:(RCTPromiseResolveBlock)resolve
                   rejecter:(RCTPromiseRejectBlock)reject)
 
@@ -47,6 +49,7 @@ RCT_EXTERN_METHOD(snapshotExportValue:(NSString)snapshotUUID
                   rejecter:(RCTPromiseRejectBlock)reject)
 
 RCT_EXTERN_METHOD(snapshotValue:(NSString)snapshotUUID
+                  options:NSObject
                   resolver:(RCTPromiseResolveBlock)resolve
                   rejecter:(RCTPromiseRejectBlock)reject)
 
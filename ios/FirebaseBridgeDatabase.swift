@@ -73,7 +73,8 @@ class FirebaseBridgeDatabase: RCTEventEmitter, RCTInvalidating {
     self.snapshotCache.removeObjectForKey(snapshotUUID)
   }
   
-  @objc func snapshotValue(snapshotUUID: String, resolver resolve: RCTPromiseResolveBlock, rejecter reject: RCTPromiseRejectBlock) {
+  // options (projection) are applied in JS on iOS and are ignored here.
+  @objc func snapshotValue(snapshotUUID: String, options: [String: AnyObject]?, resolver resolve: RCTPromiseResolveBlock, rejecter reject: RCTPromiseRejectBlock) {
     if let snapshot = self.snapshotCache.objectForKey(snapshotUUID) as? FIRDataSnapshot {
       resolve(snapshot.value)
     } else {
@@ -153,13 +154,14 @@ class FirebaseBridgeDatabase: RCTEventEmitter, RCTInvalidating {
   }
   
   override func supportedEvents() -> [String]! {
-    return ["databaseOn"]
+    return ["databaseOn", "databaseOnBatch"]
   }
   
   
   // Setup event subscription. eventTypeString should match one of JsDataEventType.
   // Can't use @objc with string enums so we manually init it below.
-  @objc func once(appName: String, databaseUrl: String?, eventTypeString:String, query: [[AnyObject]], resolver resolve: RCTPromiseResolveBlock, rejecter reject: RCTPromiseRejectBlock) {
+  // options are currently only used on Android and are ignored here.
+  @objc func once(appName: String, databaseUrl: String?, eventTypeString:String, query: [[AnyObject]], options: [String: AnyObject]?, resolver resolve: RCTPromiseResolveBlock, rejecter reject: RCTPromiseRejectBlock) {
     do {
       let ref = try onRef(appName, databaseUrl: databaseUrl, eventTypeString: eventTypeString, query: query);
       
@@ -191,7 +193,8 @@ class FirebaseBridgeDatabase: RCTEventEmitter, RCTInvalidating {
 
   // Setup event subscription. eventTypeString should match one of JsDataEventType.
   // Can't use @objc with string enums so we manually init it below.
-  @objc func on(appName: String, databaseUrl: String?, eventTypeString:String, query: [[AnyObject]], resolver resolve: RCTPromiseResolveBlock, rejecter reject: RCTPromiseRejectBlock) {
+  // options are currently only used on Android and are ignored here.
+  @objc func on(appName: String, databaseUrl: String?, eventTypeString:String, query: [[AnyObject]], options: [String: AnyObject]?, resolver resolve: RCTPromiseResolveBlock, rejecter reject: RCTPromiseRejectBlock) {
     do {
       let ref = try onRef(appName, databaseUrl: databaseUrl, eventTypeString: eventTypeString, query: query);
       
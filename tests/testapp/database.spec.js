@@ -184,6 +184,229 @@ export default function makeSuite(app) {
                 });
             });
         });
+        test('forEach over more than one page of children', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            // Children are fetched 100 at a time
+            const value = {};
+            for (let i = 0; i < 250; i++) {
+                value[`item${1000 + i}`] = i;
+            }
+            await ref.setValue(value);
+            await t.wait('wait on value', resolve => {
+                ref.once('value', async (snapshot) => {
+                    let count = 0;
+                    await snapshot.forEach(async (child) => {
+                        t.is(await child.key(), `item${1000 + count}`, 'Child key');
+                        if (count % 50 === 0) {
+                            t.is(await child.val(), count, 'Child val');
+                        }
+                        count++;
+                    });
+                    t.is(count, 250, 'forEach visits every child');
+                    count = 0;
+                    await snapshot.forEach(async () => {
+                        count++;
+                        return count === 150;
+                    });
+                    t.is(count, 150, 'forEach stops in second page');
+                    resolve();
+                });
+            });
+            await ref.remove();
+        });
+        test('getValue', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            const value = { a: { x: 1, y: 2 }, b: { x: 3, y: 4 }, c: 'c' };
+            await ref.setValue(value);
+            let snapshot = await ref.getValue();
+            t.deepEqual(await snapshot.val(), value);
+            t.is(await snapshot.numChildren(), 3);
+            t.is(await snapshot.child('b/y').val(), 4);
+            snapshot = await ref.getValue({ fields: [['a', 'b'], ['x']] });
+            t.deepEqual(await snapshot.val(), { a: { x: 1 }, b: { x: 3 } });
+            snapshot = await ref.getValue({ encoding: 'json' });
+            t.deepEqual(await snapshot.val(), value);
+            snapshot = await ref.orderByKey().limitToLast(1).getValue();
+            t.deepEqual(await snapshot.val(), { c: 'c' });
+            await ref.remove();
+        });
+        test('val with fields matches inline projection', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            // A sparse list: index 1 is missing
+            await ref.setValue({ list: { 0: 'a', 2: 'c', 3: 'd' }, map: { a: 1, b: 2 } });
+            const cases = [
+                [{ fields: [['list'], ['1', '2']] }, { list: { 1: null, 2: 'c' } }],
+                [{ fields: [['list'], ['x']] }, { list: {} }],
+                [{ fields: [['map'], ['x']] }, { map: {} }],
+                [{ fields: [['list']] }, { list: ['a', null, 'c', 'd'] }],
+            ];
+            const check = async (snapshot) => {
+                for (const [options, expected] of cases) {
+                    t.deepEqual(await snapshot.val(options), expected, JSON.stringify(options));
+                }
+            };
+            await t.wait('native value', resolve => {
+                ref.once('value', async (snapshot) => {
+                    await check(snapshot);
+                    resolve();
+                });
+            });
+            await t.wait('inline value', resolve => {
+                ref.once('value', async (snapshot) => {
+                    await check(snapshot);
+                    resolve();
+                }, null, { inlineThreshold: 100000 });
+            });
+            await ref.remove();
+        });
+        test('subscribers sharing a native listener', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            await ref.setValue(1);
+            const received = [[], [], []];
+            const notify = [];
+            const unsubs = [];
+            const subscribe = i => unsubs.push(ref.on('value', async (snapshot) => {
+                received[i].push(await snapshot.val());
+                if (notify[i]) {
+                    notify[i]();
+                }
+            }));
+            const receivedCount = (i, count) => t.wait(`subscriber ${i} value ${count}`, resolve => {
+                notify[i] = () => received[i].length === count && resolve();
+                notify[i]();
+            });
+            subscribe(0);
+            await receivedCount(0, 1);
+            // Join after the listener has its value so are sent that value
+            subscribe(1);
+            subscribe(2);
+            await Promise.all([receivedCount(1, 1), receivedCount(2, 1)]);
+            await ref.setValue(2);
+            await Promise.all([0, 1, 2].map(i => receivedCount(i, 2)));
+            unsubs.forEach(unsub => unsub());
+            received.forEach((values, i) => {
+                t.deepEqual(values, [1, 2], `subscriber ${i} sees each value once`);
+            });
+            const stats = await database.constructor.getStats();
+            if (stats) {
+                const location = ref.toString();
+                t.is(stats.listeners.filter(l => l.location === location).length, 0,
+                    'Native listener removed with last subscriber');
+            }
+            await ref.remove();
+        });
+        test('onChildren', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            await ref.setValue({ a: 1, b: 2 });
+            const events = [];
+            const previousChildNames = [];
+            let unsub;
+            await t.wait('child events', resolve => {
+                unsub = ref.orderByKey().onChildren(['child_added', 'child_changed', 'child_removed'],
+                    async (snapshot, eventType, previousChildName) => {
+                        events.push([eventType, await snapshot.key(), await snapshot.val()]);
+                        previousChildNames.push(previousChildName);
+                        if (eventType === 'child_removed') {
+                            resolve();
+                        }
+                    });
+                setTimeout(async () => {
+                    await ref.child('b').setValue(3);
+                    await ref.child('a').remove();
+                }, 500);
+            });
+            unsub();
+            t.deepEqual(events, [
+                ['child_added', 'a', 1],
+                ['child_added', 'b', 2],
+                ['child_changed', 'b', 3],
+                ['child_removed', 'a', 1],
+            ]);
+            // Only sent on Android
+            if (previousChildNames[0] !== undefined) {
+                t.deepEqual(previousChildNames, [null, 'a', 'a', null]);
+            }
+            await ref.remove();
+        });
+        test('readMirrored', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            await ref.setValue({ a: { b: 1 }, c: 2 });
+            let onValue;
+            const unsub = ref.on('value', async (snapshot) => onValue(await snapshot.val()), null, { mirror: true });
+            await t.wait('first value', resolve => { onValue = resolve; });
+            t.deepEqual(await (await ref.readMirrored()).val(), { a: { b: 1 }, c: 2 });
+            t.is(await (await ref.readMirrored('a/b')).val(), 1);
+            // The mirror is updated before the event is sent
+            await t.wait('second value', resolve => {
+                onValue = value => value.c === 3 && resolve();
+                ref.child('c').setValue(3);
+            });
+            t.is(await (await ref.readMirrored('c')).val(), 3);
+            unsub();
+            // No mirror once unsubscribed; still reads the value
+            t.is(await (await ref.readMirrored('c')).val(), 3);
+            await ref.remove();
+        });
+        test('setValueCoalesced', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            const writes = [];
+            for (let i = 0; i < 20; i++) {
+                writes.push(ref.child('x').setValueCoalesced(i));
+            }
+            writes.push(ref.child('y').setValueCoalesced('y'));
+            // Every promise resolves, including those of replaced values
+            await Promise.all(writes);
+            t.deepEqual(await (await ref.getValue()).val(), { x: 19, y: 'y' });
+            await ref.remove();
+        });
+        test('runTransaction', async (t) => {
+            if (!auth.currentUser) {
+                await auth.signInAnonymously();
+            }
+            const ref = database.ref('test').child(Math.random().toString().split('.')[1]);
+            try {
+                await ref.child('n').runTransaction('increment', 1);
+            } catch (e) {
+                // Not supported on this platform
+                return;
+            }
+            // Concurrent increments all apply
+            await Promise.all([1, 2, 3, 4].map(() => ref.child('n').runTransaction('increment', 2)));
+            t.is(await (await ref.child('n').getValue()).val(), 9);
+            let result = await ref.child('n').runTransaction('max', 5);
+            t.deepEqual([result.applied, result.value], [false, 9]);
+            result = await ref.child('n').runTransaction('min', 5);
+            t.deepEqual([result.applied, result.value], [true, 5]);
+            await ref.child('list').runTransaction('append', 'a');
+            result = await ref.child('list').runTransaction('append', 'b');
+            t.deepEqual(result.value, ['a', 'b']);
+            result = await ref.child('lock').runTransaction('compareAndSet', 'me', null);
+            t.truthy(result.applied);
+            result = await ref.child('lock').runTransaction('compareAndSet', 'you', null);
+            t.deepEqual([result.applied, result.value], [false, 'me']);
+            await ref.remove();
+        });
         test('should get perm denied', async (t) => {
             t.plan(2);
             await new Promise((resolve, reject) => {
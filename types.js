@@ -1,6 +1,11 @@
 // @flow
 
-export type EventType = 'value' | 'child_added' | 'child_removed' | 'child_changed' | 'child_moved';
+// value_delta is Android only. Listeners receive a list of DeltaPatch rather than a snapshot.
+export type ChildEventType = 'child_added' | 'child_removed' | 'child_changed' | 'child_moved';
+export type EventType = 'value' | 'value_delta' | ChildEventType;
+
+// Path is relative to the listener location; '' is the location itself
+export type DeltaPatch = { op: 'set', path: string, value: any } | { op: 'remove', path: string };
 
 export type Priority = number | string | null;
 
@@ -13,16 +18,27 @@ export interface DataSnapshot {
     hasChild(path:string) : Promise<boolean>;
     hasChildren() : Promise<boolean>;
     numChildren() : Promise<number>;
-    val() : Promise<any>;
+    val(options?:?ValueOptions) : Promise<any>;
 }
 
 export interface Query {
     endAt(value:number|string|boolean|null, key:?string) : Query;
     equalTo(value:number|string|boolean|null, key:?string) : Query;
+    getValue(options?:GetValueOptions) : Promise<DataSnapshot>;
     limitToFirst(limit:number) : Query;
     limitToLast(limit:number) : Query;
-    on(eventType:EventType, cb:((snapshot:DataSnapshot) => Promise<void>)) : () => void;
-    once(eventType:EventType, cb:((snapshot:DataSnapshot) => Promise<void>)) : () => void;
+    on(eventType:EventType,
+       cb:((snapshot:DataSnapshot, previousChildName:?string) => Promise<void>),
+       cancelCallback?:(error:Error) => void,
+       options?:SubscriptionOptions) : () => void;
+    onChildren(eventTypes:Array<ChildEventType>,
+       cb:((snapshot:DataSnapshot, eventType:ChildEventType, previousChildName:?string) => Promise<void>),
+       cancelCallback?:(error:Error) => void,
+       options?:SubscriptionOptions) : () => void;
+    once(eventType:EventType,
+         cb:((snapshot:DataSnapshot) => Promise<void>),
+         cancelCallback?:(error:Error) => void,
+         options?:SubscriptionOptions) : () => void;
     orderByChild(path:string) : Query;
     orderByKey() : Query;
     orderByPriority() : Query;
@@ -36,11 +52,31 @@ export type DatabaseReference = Query & {
     child(pathString:string) : DatabaseReference;
     push() : DatabaseReference;
     setValue(value:any) : Promise<void>;
+    setValueCoalesced(value:any, windowMs?:number) : Promise<void>;
+    runTransaction(type:TransactionType, value:any, expected?:any) : Promise<TransactionResult>;
     setValueWithPriority(value:any, priority:Priority) : Promise<void>;
     remove() : Promise<void>;
     setPriority(priority:Priority) : Promise<void>;
+    navigate(pathOps:Array<PathOp>) : DatabaseReference;
+    readMirrored(path?:?string, options?:?GetValueOptions) : Promise<DataSnapshot>;
 }
 
+export type TransactionType = 'increment' | 'decrement' | 'max' | 'min' | 'append' | 'compareAndSet';
+
+export type TransactionResult = {
+    committed: boolean;
+    // Whether the operation changed the value (eg. false for max when the value
+    // was already larger, or compareAndSet when it didn't match)
+    applied: boolean;
+    // Value after the transaction
+    value: any;
+    // Times the operation was run again because the value changed underneath it
+    retries: number;
+};
+
+// Step applied by DatabaseReference.navigate()
+export type PathOp = ['child', string] | ['parent'] | ['root'] | ['push'];
+
 export type User = {
     uid: string;
     email: ?string;
@@ -56,16 +92,106 @@ export type User = {
 export type DatabaseReferenceDescriptor = {
     locationUrl?: ?string;
     key?: string;
+    // Android only. Native handle used to navigate from this reference.
+    handle?: number;
 }
 
+// Operation passed to Database.batchWrite()
+export type BatchWriteOp =
+    { type: 'set', ref: DatabaseReference, value: any } |
+    { type: 'setWithPriority', ref: DatabaseReference, value: any, priority: Priority } |
+    { type: 'setPriority', ref: DatabaseReference, priority: Priority } |
+    { type: 'remove', ref: DatabaseReference } |
+    { type: 'update', ref: DatabaseReference, value: { [key:string]: any } };
+
+export type BatchWriteResult = { ok: true } | { ok: false, code: string, message: string };
+
+// Options for DataSnapshot.val() to only get part of a value
+export type ValueOptions = {
+    // Key whitelist for each level: fields[0] applies to the snapshot's children,
+    // fields[1] to their children etc. null (or a missing level) includes all.
+    fields?: Array<?Array<string>>;
+    // Below this many levels anything with children is replaced with
+    // { '.childrenCount': number }
+    maxDepth?: number;
+    // Android only. 'json' sends the value as a single string that is parsed in
+    // JS which is faster for large values.
+    encoding?: 'map' | 'json';
+};
+
+// Options for Query.getValue
+export type GetValueOptions = ValueOptions & {
+    // Include priorities as exportVal() does
+    exportFormat?: boolean;
+};
+
+// Options for on / once. Currently only used on Android.
+export type SubscriptionOptions = {
+    // Send the value with the event rather than caching the snapshot natively
+    // if its estimated size in bytes is at or below this.
+    inlineThreshold?: number;
+    // Send inline values as a JSON string rather than a map
+    encoding?: 'map' | 'json';
+    // Throttling for on(); see README
+    maxEventsPerSecond?: number;
+    coalesce?: boolean;
+    maxQueue?: number;
+    dropPolicy?: 'oldest' | 'newest';
+    // What on() does while the app is in the background; see README
+    background?: 'keep' | 'coalesce' | 'detach';
+    // Keep the latest value natively for readMirrored() (Android, value listeners
+    // without a query)
+    mirror?: boolean;
+};
+
+// Counters returned by Database.getStats (Android only)
+export type ListenerStats = {
+    events: number;
+    errors: number;
+    coalesced: number;
+    dropped: number;
+    conversionTimeMs: number;
+    // Count of events in each bucket of DatabaseStats.conversionTimeBucketsMs
+    // with a final bucket for anything slower
+    conversionTimeHistogram: Array<number>;
+    // Estimated bytes sent across the bridge
+    payloadBytes: number;
+    maxPayloadBytes: number;
+    // Estimated bytes of snapshots held in the native snapshot cache
+    pinnedBytes: number;
+};
+
+export type DatabaseStats = {
+    totals: ListenerStats;
+    // Upper bound of each histogram bucket
+    conversionTimeBucketsMs: Array<number>;
+    listeners: Array<ListenerStats & {
+        // Comma separated child event types for onChildren listeners
+        eventType: EventType | string;
+        location: string;
+        // Only set for throttled listeners
+        queued?: number;
+        subscriberIds: Array<string>;
+    }>;
+};
+
 // Description of snapshot received via native bridge calls
 export type DataSnapshotDescriptor = {
     ref: DatabaseReferenceDescriptor;
     childrenCount: number;
     exists: boolean;
     hasChildren: boolean;
-    uuid: string;
-    priority: number;
+    // Not set for inline snapshots or children from a cursor
+    uuid?: string;
+    priority: Priority;
+    // Only set for inline snapshots
+    value?: any;
+    // Sent instead of value for encoding 'json'; parsed into value on arrival
+    valueJson?: string;
+    // Only set for children from a cursor (see DataSnapshot.forEach)
+    cursorId?: string;
+    index?: number;
+    cachedChild?: Promise<DataSnapshotDescriptor>;
 };
 
 export type AuthCredential = {
@@ -73,6 +199,13 @@ export type AuthCredential = {
     provider: string;
 };
 
+// See Auth.setCredentialCacheOptions
+export type CredentialCacheOptions = {
+    ttlMs?: number;
+    maxEntries?: number;
+    consumeOnUse?: boolean;
+};
+
 export type FacebookAuthProvider = {
     credential(token:string) : Promise<AuthCredential>;
 };